@@ -29,8 +29,11 @@ statement: 'return' expression ';'
     | 'do' statement 'while' '(' expression ')' ';'                                         #doWhileStatement
     | 'break' ';'                                                                           #breakStatement
     | 'continue' ';'                                                                        #continueStatement
+    | 'switch' '(' expression ')' '{' switch_case* '}'                                      #switchStatement
     ;
 
+switch_case: ('case' '-'? NUM | 'default') ':' blockitem*;
+
 expression: assignment;
 
 assignment : conditional | unary '=' expression;
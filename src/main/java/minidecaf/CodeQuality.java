@@ -0,0 +1,186 @@
+package minidecaf;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * 生成代码质量的回归检查：编译语料库中的每个程序，从生成的汇编代码中统计每个函数的静态指标，
+ * 与检入的基准文件比较。由 gradle 的 codeQuality 任务运行。
+ * <p>
+ * 统计的指标是指令数、以 sp 或 fp 为基址的访存（栈上的读写）数、栈帧大小和跳转指令数，都是越小越好。
+ * 某个指标变大时给出警告，变大的比例超过阈值时检查失败；指标变小时提示可以更新基准。
+ * 有意改变生成的代码之后，用 --rebase 以当前的结果重写基准文件。
+ * <p>
+ * 基准文件与语料库中的程序同名，扩展名为 .baseline，第一行是表头，之后每行是一个函数的各项指标。
+ */
+public final class CodeQuality {
+    static final String USAGE = "Usage: CodeQuality <corpus directory> <baseline directory> [--threshold=PERCENT] [--rebase]\n"
+            + "  --threshold=PERCENT    fail when a metric grows by more than PERCENT percent (default 5)\n"
+            + "  --rebase               overwrite the baselines with the current metrics\n";
+    private static final String HEADER = "# function instructions stack-accesses frame-bytes branches";
+    private static final String[] METRICS = {"instructions", "stack accesses", "frame bytes", "branches"};
+
+    private CodeQuality() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> files = new ArrayList<>();
+        int threshold = 5;
+        boolean rebase = false;
+        for (String arg : args) {
+            if (arg.startsWith("--threshold=")) {
+                try {
+                    threshold = Integer.parseInt(arg.substring(arg.indexOf('=') + 1));
+                } catch (NumberFormatException e) {
+                    System.out.println("invalid number in " + arg + "\n" + USAGE);
+                    System.exit(2);
+                }
+            } else if (arg.equals("--rebase"))
+                rebase = true;
+            else
+                files.add(arg);
+        }
+        if (files.size() != 2) {
+            System.out.println(USAGE);
+            System.exit(2);
+        }
+        Path corpus = Path.of(files.get(0)), baselines = Path.of(files.get(1));
+        List<Path> programs = new ArrayList<>();
+        try (var stream = Files.list(corpus)) {
+            stream.filter(path -> path.toString().endsWith(".c")).sorted().forEach(programs::add);
+        }
+        Files.createDirectories(baselines);
+        int failures = 0, warnings = 0;
+        for (Path program : programs) {
+            String name = program.getFileName().toString().replaceAll("\\.c$", "");
+            Map<String, int[]> current;
+            try {
+                current = measure(compile(program));
+            } catch (RuntimeException e) {
+                System.out.println(name + ": compile error: " + e.getMessage());
+                failures++;
+                continue;
+            }
+            Path baselineFile = baselines.resolve(name + ".baseline");
+            if (rebase) {
+                write(baselineFile, current);
+                continue;
+            }
+            if (!Files.exists(baselineFile)) {
+                System.out.println(name + ": warning: no baseline, run with --rebase to create it");
+                warnings++;
+                continue;
+            }
+            Map<String, int[]> expected = read(baselineFile);
+            for (String function : expected.keySet())
+                if (!current.containsKey(function)) {
+                    System.out.println(name + ": warning: function " + function + " is no longer emitted");
+                    warnings++;
+                }
+            for (var entry : current.entrySet()) {
+                String function = entry.getKey();
+                int[] before = expected.get(function), after = entry.getValue();
+                if (before == null) {
+                    System.out.println(name + ": warning: function " + function + " has no baseline");
+                    warnings++;
+                    continue;
+                }
+                for (int i = 0; i < METRICS.length; ++i) {
+                    if (after[i] == before[i])
+                        continue;
+                    String change = name + ": " + function + ": " + METRICS[i] + " " + before[i] + " -> " + after[i];
+                    if (after[i] < before[i])
+                        System.out.println(change + " (improved, consider --rebase)");
+                    else if (100L * (after[i] - before[i]) > (long) threshold * before[i]) {
+                        System.out.println(change + " (FAIL: more than " + threshold + "% worse)");
+                        failures++;
+                    } else {
+                        System.out.println(change + " (warning)");
+                        warnings++;
+                    }
+                }
+            }
+        }
+        if (rebase)
+            System.out.println("rebased " + programs.size() + " baselines in " + baselines);
+        else
+            System.out.println(programs.size() + " programs, " + failures + " failures, " + warnings + " warnings");
+        if (failures > 0)
+            System.exit(1);
+    }
+
+    /**
+     * 以默认的编译选项编译一个程序，返回生成的汇编代码。
+     */
+    private static String compile(Path program) throws Exception {
+        Path output = Files.createTempFile("minidecaf", ".s");
+        try {
+            Main.main(new String[]{program.toString(), output.toString()});
+            return Files.readString(output);
+        } finally {
+            Files.delete(output);
+        }
+    }
+
+    /**
+     * 统计汇编代码中每个函数的各项指标。函数从它的标签开始，到下一个函数为止，包括放在函数末尾的冷代码。
+     */
+    static Map<String, int[]> measure(String assembly) {
+        Map<String, int[]> result = new TreeMap<>();
+        int[] metrics = null;
+        boolean text = true;
+        String previous = "";
+        for (String line : assembly.split("\n")) {
+            String s = line.trim();
+            if (s.equals(".text"))
+                text = true;
+            else if (s.equals(".data") || s.equals(".bss") || s.startsWith(".section"))
+                text = s.startsWith(".section") && s.contains(".text");
+            else if (s.endsWith(":") && previous.equals(".global " + s.substring(0, s.length() - 1))) {
+                metrics = new int[METRICS.length];
+                result.put(s.substring(0, s.length() - 1), metrics);
+            } else if (s.startsWith("# frame:") && metrics != null)
+                metrics[2] = Integer.parseInt(s.split("\\s+")[2]);
+            else if (text && metrics != null && line.startsWith("\t") && !s.startsWith(".") && !s.startsWith("#")
+                    && !s.isEmpty()) {
+                String[] parts = s.split("[\\s,]+");
+                String op = parts[0].startsWith("c.") ? parts[0].substring(2) : parts[0];
+                metrics[0]++;
+                if (op.equals("lwsp") || op.equals("swsp") || (op.equals("lw") || op.equals("sw"))
+                        && (parts[parts.length - 1].endsWith("(sp)") || parts[parts.length - 1].endsWith("(fp)")))
+                    metrics[1]++;
+                if (op.startsWith("b") || op.equals("j") || op.equals("jr") && !parts[1].equals("ra"))
+                    metrics[3]++;
+            }
+            previous = s;
+        }
+        return result;
+    }
+
+    private static Map<String, int[]> read(Path file) throws IOException {
+        Map<String, int[]> result = new TreeMap<>();
+        for (String line : Files.readAllLines(file)) {
+            if (line.isBlank() || line.startsWith("#"))
+                continue;
+            String[] fields = line.trim().split("\\s+");
+            int[] metrics = new int[METRICS.length];
+            for (int i = 0; i < METRICS.length; ++i)
+                metrics[i] = Integer.parseInt(fields[i + 1]);
+            result.put(fields[0], metrics);
+        }
+        return result;
+    }
+
+    private static void write(Path file, Map<String, int[]> metrics) throws IOException {
+        StringBuilder builder = new StringBuilder(HEADER).append("\n");
+        for (var entry : metrics.entrySet()) {
+            builder.append(entry.getKey());
+            for (int value : entry.getValue())
+                builder.append(" ").append(value);
+            builder.append("\n");
+        }
+        Files.writeString(file, builder);
+    }
+}
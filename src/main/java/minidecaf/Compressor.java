@@ -0,0 +1,300 @@
+package minidecaf;
+
+import java.util.*;
+
+/**
+ * RV32C 压缩：把编码允许的指令改写为 16 位的 c.* 形式，并在每个函数的标签之后以注释报告压缩前后的代码大小。
+ * <p>
+ * 多数 16 位指令的寄存器操作数只能是 x8-x15（s0/fp、s1、a0-a5），因此在指令调度之前先把表达式求值所用的
+ * 临时寄存器 t0、t1 改为 a5、a4（{@link #preferCompressibleRegisters}）。它们同样是调用者保存的，
+ * 代码生成保证在 a4、a5 中存放实参之后不再使用临时寄存器。
+ * <p>
+ * 压缩的跳转指令偏移范围较小。先按压缩后的大小估计每个标签的地址，只压缩目标一定在范围内的跳转；
+ * 压缩只会让代码变短，因此反复估计直到没有新的跳转可以压缩，之前压缩的跳转仍在范围内。
+ */
+public final class Compressor {
+    private static final Map<String, String> RENAMED = Map.of("t0", "a5", "t1", "a4");
+    private static final Set<String> COMPRESSIBLE = new HashSet<>(Arrays.asList(
+            "fp", "s0", "s1", "a0", "a1", "a2", "a3", "a4", "a5")); // x8-x15
+
+    /**
+     * 一行汇编代码，记录它是指令时压缩前后的形式和大小。
+     */
+    private static final class Line {
+        String text;
+        final String op;
+        final String[] operands;
+        int size; // 字节数，不是正文段中的指令时为 0
+        final int originalSize;
+
+        Line(String text, boolean instruction) {
+            this.text = text;
+            if (!instruction) {
+                op = null;
+                operands = new String[0];
+                originalSize = 0;
+                return;
+            }
+            String body = text.trim();
+            int space = body.indexOf(' ');
+            op = space < 0 ? body : body.substring(0, space);
+            operands = space < 0 ? new String[0] : body.substring(space + 1).split(",\\s*");
+            originalSize = size(op, operands);
+            size = originalSize;
+        }
+    }
+
+    /**
+     * 把指令中作为寄存器使用的 t0、t1 改为 a5、a4。
+     */
+    public static String preferCompressibleRegisters(String code) {
+        StringBuilder result = new StringBuilder();
+        for (String line : code.split("\n", -1)) {
+            if (result.length() > 0)
+                result.append("\n");
+            if (!isInstruction(line)) {
+                result.append(line);
+                continue;
+            }
+            String body = line.trim();
+            int space = body.indexOf(' ');
+            String op = space < 0 ? body : body.substring(0, space);
+            if (space < 0 || op.equals("call") || op.equals("tail") || op.equals("j") || op.equals("jal")) {
+                result.append(line); // 操作数是函数名或标签
+                continue;
+            }
+            String[] operands = body.substring(space + 1).split(",\\s*");
+            int last = op.startsWith("b") ? operands.length - 1 : operands.length; // 条件跳转的最后一个操作数是标签
+            for (int i = 0; i < last; ++i) {
+                String operand = operands[i];
+                int paren = operand.lastIndexOf('(');
+                if (RENAMED.containsKey(operand))
+                    operands[i] = RENAMED.get(operand);
+                else if (paren >= 0 && operand.endsWith(")")) { // 访存的基址寄存器
+                    String base = operand.substring(paren + 1, operand.length() - 1);
+                    if (RENAMED.containsKey(base))
+                        operands[i] = operand.substring(0, paren + 1) + RENAMED.get(base) + ")";
+                }
+            }
+            result.append("\t").append(op).append(" ").append(String.join(", ", operands));
+        }
+        return result.toString();
+    }
+
+    /**
+     * 压缩整个汇编程序。
+     */
+    public String compress(String code) {
+        List<Line> lines = new ArrayList<>();
+        boolean text = true;
+        for (String s : code.split("\n", -1)) {
+            String directive = s.trim();
+            if (directive.equals(".text"))
+                text = true;
+            else if (directive.equals(".data") || directive.equals(".bss") || directive.startsWith(".section"))
+                text = directive.startsWith(".section") && directive.contains(".text");
+            Line line = new Line(s, text && isInstruction(s));
+            if (line.op != null) {
+                String compressed = compressed(line.op, line.operands);
+                if (compressed != null) {
+                    line.text = "\t" + compressed;
+                    line.size = 2;
+                }
+            }
+            lines.add(line);
+        }
+        compressJumps(lines, textLabels(lines));
+        return report(lines);
+    }
+
+    /**
+     * 找出正文段中的标签，返回标签名到所在行号的映射。
+     */
+    private static Map<String, Integer> textLabels(List<Line> lines) {
+        Map<String, Integer> labels = new HashMap<>();
+        boolean text = true;
+        for (int i = 0; i < lines.size(); ++i) {
+            String s = lines.get(i).text.trim();
+            if (s.equals(".text"))
+                text = true;
+            else if (s.equals(".data") || s.equals(".bss") || s.startsWith(".section"))
+                text = s.startsWith(".section") && s.contains(".text");
+            else if (text && s.endsWith(":") && !s.startsWith("#"))
+                labels.put(s.substring(0, s.length() - 1), i);
+        }
+        return labels;
+    }
+
+    /**
+     * 压缩目标在范围内的 j、beqz、bnez。
+     */
+    private static void compressJumps(List<Line> lines, Map<String, Integer> labels) {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            int[] address = new int[lines.size() + 1];
+            for (int i = 0; i < lines.size(); ++i)
+                address[i + 1] = address[i] + lines.get(i).size;
+            for (int i = 0; i < lines.size(); ++i) {
+                Line line = lines.get(i);
+                if (line.op == null || line.size == 2)
+                    continue;
+                String target = line.operands.length == 0 ? null : line.operands[line.operands.length - 1];
+                Integer targetLine = labels.get(target);
+                if (targetLine == null)
+                    continue;
+                int offset = address[targetLine] - address[i];
+                String compressed = null;
+                if (line.op.equals("j") && offset >= -2048 && offset <= 2046)
+                    compressed = "c.j " + target;
+                else if ((line.op.equals("beqz") || line.op.equals("bnez")) && COMPRESSIBLE.contains(line.operands[0])
+                        && offset >= -256 && offset <= 254)
+                    compressed = "c." + line.op + " " + line.operands[0] + ", " + target;
+                if (compressed != null) {
+                    line.text = "\t" + compressed;
+                    line.size = 2;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * 在每个函数的标签之后插入压缩前后代码大小的报告。
+     */
+    private static String report(List<Line> lines) {
+        List<String> output = new ArrayList<>();
+        int reportIndex = -1;
+        int before = 0, after = 0;
+        String previous = "";
+        for (Line line : lines) {
+            String s = line.text;
+            if (s.endsWith(":") && previous.equals("\t.global " + s.substring(0, s.length() - 1))) {
+                if (reportIndex >= 0)
+                    output.add(reportIndex, report(before, after));
+                before = after = 0;
+                output.add(s);
+                reportIndex = output.size();
+            } else
+                output.add(s);
+            before += line.originalSize;
+            after += line.size;
+            previous = s;
+        }
+        if (reportIndex >= 0)
+            output.add(reportIndex, report(before, after));
+        return String.join("\n", output);
+    }
+
+    private static String report(int before, int after) {
+        return "\t# rvc: " + before + " -> " + after + " bytes";
+    }
+
+    private static boolean isInstruction(String line) {
+        return line.startsWith("\t") && !line.startsWith("\t.") && !line.startsWith("\t#") && !line.isBlank();
+    }
+
+    /**
+     * 指令不压缩时的字节数，伪指令按展开后的指令数计算。
+     */
+    private static int size(String op, String[] operands) {
+        switch (op) {
+            case "call", "tail", "la":
+                return 8;
+            case "li":
+                Integer value = immediate(operands[1]);
+                return value != null && value >= -2048 && value < 2048 ? 4 : 8;
+            default:
+                return 4;
+        }
+    }
+
+    /**
+     * 指令的 16 位形式，编码不允许时返回 null。跳转到标签的指令由 {@link #compressJumps} 处理。
+     */
+    private static String compressed(String op, String[] operands) {
+        switch (op) {
+            case "ret":
+                return "c.jr ra";
+            case "nop":
+                return "c.nop";
+            case "jr":
+                return operands[0].equals("zero") ? null : "c.jr " + operands[0];
+            case "mv":
+                return operands[0].equals("zero") || operands[1].equals("zero") ? null
+                        : "c.mv " + operands[0] + ", " + operands[1];
+            case "li": {
+                Integer value = immediate(operands[1]);
+                return value != null && !operands[0].equals("zero") && value >= -32 && value < 32
+                        ? "c.li " + operands[0] + ", " + value : null;
+            }
+            case "lw", "sw": {
+                String address = operands[1];
+                int paren = address.lastIndexOf('(');
+                if (paren < 0)
+                    return null;
+                String base = address.substring(paren + 1, address.length() - 1);
+                Integer offset = paren == 0 ? Integer.valueOf(0) : immediate(address.substring(0, paren));
+                if (offset == null || offset % 4 != 0 || offset < 0)
+                    return null;
+                if (base.equals("sp") && offset <= 252 && !(op.equals("lw") && operands[0].equals("zero")))
+                    return "c." + op + "sp " + operands[0] + ", " + offset + "(sp)";
+                if (COMPRESSIBLE.contains(base) && COMPRESSIBLE.contains(operands[0]) && offset <= 124)
+                    return "c." + op + " " + operands[0] + ", " + offset + "(" + base + ")";
+                return null;
+            }
+            case "addi": {
+                Integer value = immediate(operands[2]);
+                String rd = operands[0], rs = operands[1];
+                if (value == null || rd.equals("zero"))
+                    return null;
+                if (rd.equals(rs)) {
+                    if (rd.equals("sp") && value != 0 && value % 16 == 0 && value >= -512 && value <= 496)
+                        return "c.addi16sp sp, " + value;
+                    if (value != 0 && value >= -32 && value < 32)
+                        return "c.addi " + rd + ", " + value;
+                    return null;
+                }
+                if (rs.equals("sp") && COMPRESSIBLE.contains(rd) && value > 0 && value % 4 == 0 && value <= 1020)
+                    return "c.addi4spn " + rd + ", sp, " + value;
+                if (value == 0 && !rs.equals("zero"))
+                    return "c.mv " + rd + ", " + rs;
+                return null;
+            }
+            case "slli", "srli", "srai", "andi": {
+                Integer value = immediate(operands[2]);
+                String rd = operands[0];
+                if (value == null || !rd.equals(operands[1]) || rd.equals("zero"))
+                    return null;
+                if (op.equals("andi"))
+                    return COMPRESSIBLE.contains(rd) && value >= -32 && value < 32 ? "c.andi " + rd + ", " + value : null;
+                if (value < 1 || value > 31 || (!op.equals("slli") && !COMPRESSIBLE.contains(rd)))
+                    return null;
+                return "c." + op + " " + rd + ", " + value;
+            }
+            case "add", "sub", "and", "or", "xor": {
+                String rd = operands[0];
+                String other; // 与 rd 相同的源操作数之外的另一个源操作数
+                if (rd.equals(operands[1]))
+                    other = operands[2];
+                else if (rd.equals(operands[2]) && !op.equals("sub")) // 除减法外都满足交换律
+                    other = operands[1];
+                else
+                    return null;
+                if (op.equals("add"))
+                    return rd.equals("zero") || other.equals("zero") ? null : "c.add " + rd + ", " + other;
+                return COMPRESSIBLE.contains(rd) && COMPRESSIBLE.contains(other) ? "c." + op + " " + rd + ", " + other : null;
+            }
+            default:
+                return null;
+        }
+    }
+
+    private static Integer immediate(String operand) {
+        try {
+            return Integer.parseInt(operand.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package minidecaf;
+
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+import java.math.BigInteger;
+
+/**
+ * 在编译期对只由整数字面量构成的表达式求值。
+ */
+public final class ConstantEvaluator {
+    private ConstantEvaluator() {
+    }
+
+    /**
+     * 对常量表达式求值。
+     *
+     * @param tree 表达式对应的分析树
+     * @return 表达式的值，表达式不是常量或求值出错（如除以 0）时返回 null
+     */
+    public static Integer evaluate(ParseTree tree) {
+        if (tree instanceof MiniDecafParser.NumberPrimaryContext) {
+            // 字面量可以任意长，与代码生成一样不接受不小于整型最大值的字面量，由代码生成报告错误
+            BigInteger value = new BigInteger(tree.getText());
+            return value.compareTo(BigInteger.valueOf(Integer.MAX_VALUE)) < 0 ? value.intValue() : null;
+        }
+        if (tree instanceof MiniDecafParser.ParenthesizedPrimaryContext)
+            return evaluate(((MiniDecafParser.ParenthesizedPrimaryContext) tree).expression());
+        if (tree instanceof MiniDecafParser.OperatorUnaryContext) {
+            Integer value = evaluate(((MiniDecafParser.OperatorUnaryContext) tree).unary());
+            if (value == null) return null;
+            switch (tree.getChild(0).getText()) {
+                case "-": return -value;
+                case "~": return ~value;
+                case "!": return value == 0 ? 1 : 0;
+                default: return null;
+            }
+        }
+        if (tree.getChildCount() == 1 && !(tree.getChild(0) instanceof TerminalNode))
+            return evaluate(tree.getChild(0));
+        if ((tree instanceof MiniDecafParser.AdditiveContext || tree instanceof MiniDecafParser.MultiplicativeContext)
+                && tree.getChildCount() == 3) {
+            Integer left = evaluate(tree.getChild(0));
+            Integer right = evaluate(tree.getChild(2));
+            if (left == null || right == null) return null;
+            switch (tree.getChild(1).getText()) {
+                case "+": return left + right;
+                case "-": return left - right;
+                case "*": return left * right;
+                case "/": return right == 0 ? null : left / right;
+                case "%": return right == 0 ? null : left % right;
+                default: return null;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,176 @@
+package minidecaf;
+
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+/**
+ * 计数循环：形如 for (int i = a; i < b; i = i + c) 的 for 循环，其中 a、b、c 都是常量，
+ * 循环体中不修改 i，也没有跳出该循环的 break 和 continue，因此循环次数在编译期即可确定。
+ * 条件中的比较运算还可以是 &lt;=、&gt;、&gt;= 和 !=，更新也可以是 i = i - c。
+ */
+public final class CountedLoop {
+    public final String variable; // 循环变量名
+    public final int start; // 循环变量的初值
+    public final int step; // 每次迭代循环变量的增量
+    public final int tripCount; // 迭代次数
+
+    private CountedLoop(String variable, int start, int step, int tripCount) {
+        this.variable = variable;
+        this.start = start;
+        this.step = step;
+        this.tripCount = tripCount;
+    }
+
+    /**
+     * 识别计数循环。
+     *
+     * @param ctx  for 语句
+     * @param init 初始化表达式，初始化部分是声明或为空时为 null
+     * @param ctrl 条件表达式
+     * @param post 更新表达式
+     * @return 识别出的计数循环，不是计数循环时返回 null
+     */
+    public static CountedLoop match(MiniDecafParser.ForStatementContext ctx, MiniDecafParser.ExpressionContext init,
+                                    MiniDecafParser.ExpressionContext ctrl, MiniDecafParser.ExpressionContext post) {
+        if (ctrl == null || post == null) return null;
+        // 初始化：int i = a 或 i = a
+        String variable;
+        Integer start;
+        if (ctx.declaration() instanceof MiniDecafParser.LocalIntOrPointerDeclContext) {
+            var declaration = (MiniDecafParser.LocalIntOrPointerDeclContext) ctx.declaration();
+            if (declaration.type().getChildCount() != 1 || declaration.expression() == null) return null;
+            variable = declaration.IDENT().getText();
+            start = ConstantEvaluator.evaluate(declaration.expression());
+        } else if (init != null) {
+            var assignment = init.assignment();
+            if (assignment.getChildCount() == 1) return null;
+            variable = identName(assignment.unary());
+            start = ConstantEvaluator.evaluate(assignment.expression());
+        } else
+            return null;
+        if (variable == null || start == null) return null;
+        // 更新：i = i + c、i = c + i 或 i = i - c
+        var update = post.assignment();
+        if (update.getChildCount() == 1 || !variable.equals(identName(update.unary()))) return null;
+        var additive = unwrap(update.expression(), MiniDecafParser.AdditiveContext.class);
+        if (additive == null || additive.getChildCount() != 3) return null;
+        Integer step;
+        if (variable.equals(identName(additive.additive())))
+            step = ConstantEvaluator.evaluate(additive.multiplicative());
+        else if (additive.getChild(1).getText().equals("+") && variable.equals(identName(additive.multiplicative())))
+            step = ConstantEvaluator.evaluate(additive.additive());
+        else
+            return null;
+        if (step == null) return null;
+        if (additive.getChild(1).getText().equals("-")) step = -step;
+        if (step == 0) return null;
+        // 条件：i < b、i <= b、i > b、i >= b 或 i != b
+        String op;
+        Integer bound;
+        var relational = unwrap(ctrl, MiniDecafParser.RelationalContext.class);
+        var equality = unwrap(ctrl, MiniDecafParser.EqualityContext.class);
+        if (relational != null && relational.getChildCount() == 3) {
+            if (!variable.equals(identName(relational.relational()))) return null;
+            op = relational.getChild(1).getText();
+            bound = ConstantEvaluator.evaluate(relational.additive());
+        } else if (equality != null && equality.getChildCount() == 3 && equality.getChild(1).getText().equals("!=")) {
+            if (!variable.equals(identName(equality.equality()))) return null;
+            op = "!=";
+            bound = ConstantEvaluator.evaluate(equality.relational());
+        } else
+            return null;
+        if (bound == null) return null;
+        long tripCount = tripCount(start, bound, step, op);
+        // 循环变量在整个循环中都不能溢出
+        if (tripCount < 0 || (long) start + tripCount * step > Integer.MAX_VALUE
+                || (long) start + tripCount * step < Integer.MIN_VALUE)
+            return null;
+        if (modifies(ctx.statement(), variable) || escapes(ctx.statement())) return null;
+        return new CountedLoop(variable, start, step, (int) tripCount);
+    }
+
+    /**
+     * 计算迭代次数，循环不会正常结束时返回 -1。
+     */
+    private static long tripCount(long start, long bound, long step, String op) {
+        switch (op) {
+            case "<":
+                if (step < 0) return start < bound ? -1 : 0;
+                return start < bound ? (bound - start + step - 1) / step : 0;
+            case "<=":
+                if (step < 0) return start <= bound ? -1 : 0;
+                return start <= bound ? (bound - start) / step + 1 : 0;
+            case ">":
+                if (step > 0) return start > bound ? -1 : 0;
+                return start > bound ? (start - bound - step - 1) / -step : 0;
+            case ">=":
+                if (step > 0) return start >= bound ? -1 : 0;
+                return start >= bound ? (start - bound) / -step + 1 : 0;
+            case "!=":
+                if ((bound - start) % step != 0 || (bound - start) / step < 0) return -1;
+                return (bound - start) / step;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * 判断循环体中是否可能修改循环变量。同名变量的声明也视为修改，这是保守的。
+     */
+    private static boolean modifies(ParseTree tree, String variable) {
+        if (tree instanceof MiniDecafParser.AssignmentContext && tree.getChildCount() > 1
+                && variable.equals(EscapeAnalysis.lvalueName(tree)))
+            return true;
+        if (tree instanceof MiniDecafParser.LocalIntOrPointerDeclContext
+                && ((MiniDecafParser.LocalIntOrPointerDeclContext) tree).IDENT().getText().equals(variable))
+            return true;
+        if (tree instanceof MiniDecafParser.LocalArrayDeclContext
+                && ((MiniDecafParser.LocalArrayDeclContext) tree).IDENT().getText().equals(variable))
+            return true;
+        for (int i = 0; i < tree.getChildCount(); ++i)
+            if (modifies(tree.getChild(i), variable))
+                return true;
+        return false;
+    }
+
+    /**
+     * 判断循环体中是否有作用于该循环的 break 或 continue，内层循环中的不算，switch 语句中的 break 也不算。
+     */
+    private static boolean escapes(ParseTree tree) {
+        return escapes(tree, false);
+    }
+
+    private static boolean escapes(ParseTree tree, boolean inSwitch) {
+        if (tree instanceof MiniDecafParser.ContinueStatementContext
+                || (tree instanceof MiniDecafParser.BreakStatementContext && !inSwitch))
+            return true;
+        if (tree instanceof MiniDecafParser.ForStatementContext || tree instanceof MiniDecafParser.WhileStatementContext
+                || tree instanceof MiniDecafParser.DoWhileStatementContext)
+            return false;
+        inSwitch |= tree instanceof MiniDecafParser.SwitchStatementContext;
+        for (int i = 0; i < tree.getChildCount(); ++i)
+            if (escapes(tree.getChild(i), inSwitch))
+                return true;
+        return false;
+    }
+
+    /**
+     * 若表达式就是一个变量名，返回该变量名，否则返回 null。
+     */
+    private static String identName(ParseTree tree) {
+        var primary = unwrap(tree, MiniDecafParser.IdentPrimaryContext.class);
+        return primary == null ? null : primary.IDENT().getText();
+    }
+
+    /**
+     * 沿着只有一个子节点的分析树节点向下查找指定类型的节点。
+     */
+    private static <T extends ParseTree> T unwrap(ParseTree tree, Class<T> nodeClass) {
+        while (!nodeClass.isInstance(tree)) {
+            if (tree.getChildCount() != 1 || tree.getChild(0) instanceof TerminalNode)
+                return null;
+            tree = tree.getChild(0);
+        }
+        return nodeClass.cast(tree);
+    }
+}
@@ -0,0 +1,205 @@
+package minidecaf;
+
+import org.antlr.v4.runtime.tree.ParseTree;
+
+import java.util.*;
+
+/**
+ * 死代码分析：在生成代码之前，从 main 出发沿调用图找出可达的函数，以及可达函数中用到的全局变量；
+ * 同时找出每个函数中值会被读取的变量名，只被赋值而从不被读取的局部变量不需要存储空间，对它的赋值也可以删除。
+ * 与逃逸分析一样，变量按名字区分，这是保守的。
+ */
+public final class DeadCodeAnalysis extends MiniDecafBaseVisitor<Void> {
+    private final Map<String, Set<String>> callTable = new HashMap<>(); // 函数名 -> 函数中调用的函数名
+    private final Map<String, Set<String>> nameTable = new HashMap<>(); // 函数名 -> 函数中出现的变量名
+    private final Map<String, Set<String>> readTable = new HashMap<>(); // 函数名 -> 函数中值被读取的变量名
+    private final Set<String> reachableFunctions = new HashSet<>();
+    private final Set<String> referencedGlobals = new HashSet<>();
+    private String currentFunction;
+
+    @Override
+    public Void visitProgram(MiniDecafParser.ProgramContext ctx) {
+        visitChildren(ctx);
+        // 从 main 出发遍历调用图
+        Deque<String> worklist = new ArrayDeque<>();
+        worklist.add("main");
+        while (!worklist.isEmpty()) {
+            String function = worklist.poll();
+            if (!reachableFunctions.add(function) || !callTable.containsKey(function))
+                continue;
+            worklist.addAll(callTable.get(function));
+            referencedGlobals.addAll(nameTable.get(function));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitDefineFunction(MiniDecafParser.DefineFunctionContext ctx) {
+        currentFunction = ctx.IDENT(0).getText();
+        callTable.computeIfAbsent(currentFunction, k -> new HashSet<>());
+        nameTable.computeIfAbsent(currentFunction, k -> new HashSet<>());
+        readTable.computeIfAbsent(currentFunction, k -> new HashSet<>());
+        return visitChildren(ctx);
+    }
+
+    @Override
+    public Void visitCompound_statement(MiniDecafParser.Compound_statementContext ctx) {
+        visitBlockItems(ctx.blockitem());
+        return null;
+    }
+
+    @Override
+    public Void visitSwitch_case(MiniDecafParser.Switch_caseContext ctx) {
+        visitBlockItems(ctx.blockitem());
+        return null;
+    }
+
+    /**
+     * 与代码生成一样，只访问到第一条一定会跳走的语句为止，其后不可达的语句中的调用和变量不算作被使用。
+     */
+    private void visitBlockItems(List<MiniDecafParser.BlockitemContext> blockItems) {
+        for (var blockItem : blockItems) {
+            visit(blockItem);
+            if (alwaysTransfers(blockItem))
+                break;
+        }
+    }
+
+    @Override
+    public Void visitFunctionPostfix(MiniDecafParser.FunctionPostfixContext ctx) {
+        callTable.get(currentFunction).add(ctx.IDENT().getText());
+        return visitChildren(ctx);
+    }
+
+    @Override
+    public Void visitExpression(MiniDecafParser.ExpressionContext ctx) {
+        String variable = storedVariable(ctx);
+        if (variable != null && isDiscarded(ctx)) { // 值被丢弃的赋值不算作对变量的读取
+            nameTable.get(currentFunction).add(variable);
+            return visit(ctx.assignment().expression());
+        }
+        return visitChildren(ctx);
+    }
+
+    @Override
+    public Void visitIdentPrimary(MiniDecafParser.IdentPrimaryContext ctx) {
+        nameTable.get(currentFunction).add(ctx.IDENT().getText());
+        readTable.get(currentFunction).add(ctx.IDENT().getText());
+        return null;
+    }
+
+    /**
+     * 函数是否可以从 main 到达。
+     */
+    public boolean isReachable(String function) {
+        return reachableFunctions.contains(function);
+    }
+
+    /**
+     * 全局变量是否在可达的函数中出现。
+     */
+    public boolean isReferenced(String global) {
+        return referencedGlobals.contains(global);
+    }
+
+    /**
+     * 函数中名为 variable 的变量的值是否可能被读取。
+     */
+    public boolean isRead(String function, String variable) {
+        Set<String> read = readTable.get(function);
+        return read == null || read.contains(variable);
+    }
+
+    /**
+     * 若表达式是直接给变量赋值的赋值表达式（形如 x = e），返回该变量名，否则返回 null。
+     */
+    static String storedVariable(MiniDecafParser.ExpressionContext ctx) {
+        var assignment = ctx.assignment();
+        if (assignment.getChildCount() == 1 || !(assignment.unary() instanceof MiniDecafParser.PostfixUnaryContext))
+            return null;
+        var postfix = ((MiniDecafParser.PostfixUnaryContext) assignment.unary()).postfix();
+        if (!(postfix instanceof MiniDecafParser.PrimaryPostfixContext))
+            return null;
+        var primary = ((MiniDecafParser.PrimaryPostfixContext) postfix).primary();
+        if (!(primary instanceof MiniDecafParser.IdentPrimaryContext))
+            return null;
+        return ((MiniDecafParser.IdentPrimaryContext) primary).IDENT().getText();
+    }
+
+    /**
+     * 表达式的值是否被丢弃，即它是表达式语句，或者是 for 语句的初始化或更新部分。
+     */
+    static boolean isDiscarded(MiniDecafParser.ExpressionContext ctx) {
+        var parent = ctx.getParent();
+        if (parent instanceof MiniDecafParser.ExpressionStatementContext)
+            return true;
+        if (!(parent instanceof MiniDecafParser.ForStatementContext))
+            return false;
+        int index = parent.children.indexOf(ctx);
+        return parent.getChild(index - 1).getText().equals("(") || parent.getChild(index + 1).getText().equals(")");
+    }
+
+    /**
+     * 语句执行后是否一定不会顺序执行到其后的语句，即一定会执行 return、break 或 continue。
+     */
+    static boolean alwaysTransfers(ParseTree tree) {
+        if (tree instanceof MiniDecafParser.ReturnStatementContext || tree instanceof MiniDecafParser.BreakStatementContext
+                || tree instanceof MiniDecafParser.ContinueStatementContext)
+            return true;
+        if (tree instanceof MiniDecafParser.BlockitemContext || tree instanceof MiniDecafParser.DefaultStatementContext)
+            return alwaysTransfers(tree.getChild(0));
+        if (tree instanceof MiniDecafParser.Compound_statementContext) {
+            for (var blockItem : ((MiniDecafParser.Compound_statementContext) tree).blockitem())
+                if (alwaysTransfers(blockItem))
+                    return true;
+            return false;
+        }
+        if (tree instanceof MiniDecafParser.IfStatementContext) {
+            var statements = ((MiniDecafParser.IfStatementContext) tree).statement();
+            return statements.size() > 1 && alwaysTransfers(statements.get(0)) && alwaysTransfers(statements.get(1));
+        }
+        if (tree instanceof MiniDecafParser.SwitchStatementContext) {
+            // 有 default 时总会进入某个 case，并顺序执行到最后一个 case；它一定会跳走且没有跳出 switch 的 break 时，
+            // switch 语句一定会跳走
+            var sections = ((MiniDecafParser.SwitchStatementContext) tree).switch_case();
+            if (sections.isEmpty() || sections.stream().allMatch(section -> section.NUM() != null) || breaksOut(tree))
+                return false;
+            for (var blockItem : sections.get(sections.size() - 1).blockitem())
+                if (alwaysTransfers(blockItem))
+                    return true;
+            return false;
+        }
+        return false;
+    }
+
+    /**
+     * switch 语句中是否有跳出它的 break，内层循环和 switch 语句中的不算。
+     */
+    private static boolean breaksOut(ParseTree tree) {
+        for (int i = 0; i < tree.getChildCount(); ++i) {
+            ParseTree child = tree.getChild(i);
+            if (child instanceof MiniDecafParser.BreakStatementContext)
+                return true;
+            if (child instanceof MiniDecafParser.ForStatementContext || child instanceof MiniDecafParser.WhileStatementContext
+                    || child instanceof MiniDecafParser.DoWhileStatementContext
+                    || child instanceof MiniDecafParser.SwitchStatementContext)
+                continue;
+            if (breaksOut(child))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * 表达式求值是否有副作用，即是否含有函数调用或赋值。
+     */
+    static boolean hasSideEffect(ParseTree tree) {
+        if (tree instanceof MiniDecafParser.FunctionPostfixContext
+                || tree instanceof MiniDecafParser.AssignmentContext && tree.getChildCount() > 1)
+            return true;
+        for (int i = 0; i < tree.getChildCount(); ++i)
+            if (hasSideEffect(tree.getChild(i)))
+                return true;
+        return false;
+    }
+}
@@ -0,0 +1,89 @@
+package minidecaf;
+
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+import java.util.*;
+
+/**
+ * 逃逸分析：在生成代码之前，找出每个函数中被取过地址的变量名。
+ * 没有被取过地址的标量变量只能通过变量名访问，因此可以放在寄存器中。
+ * 分析按变量名进行，同名的变量只要有一个被取地址，就都视为逃逸，这是保守的。
+ */
+public final class EscapeAnalysis extends MiniDecafBaseVisitor<Void> {
+    private final Map<String, Set<String>> addressTakenTable = new HashMap<>(); // 函数名 -> 被取地址的变量名
+    private Set<String> currentAddressTaken;
+
+    @Override
+    public Void visitDefineFunction(MiniDecafParser.DefineFunctionContext ctx) {
+        currentAddressTaken = new HashSet<>();
+        addressTakenTable.put(ctx.IDENT(0).getText(), currentAddressTaken);
+        return visitChildren(ctx);
+    }
+
+    @Override
+    public Void visitOperatorUnary(MiniDecafParser.OperatorUnaryContext ctx) {
+        if (ctx.children.get(0).getText().equals("&")) {
+            String name = lvalueName(ctx.unary());
+            if (name != null)
+                currentAddressTaken.add(name);
+        }
+        return visitChildren(ctx);
+    }
+
+    /**
+     * 查询函数中的某个变量是否被取过地址。
+     *
+     * @param function 函数名
+     * @param variable 变量名
+     */
+    public boolean isAddressTaken(String function, String variable) {
+        Set<String> addressTaken = addressTakenTable.get(function);
+        return addressTaken == null || addressTaken.contains(variable);
+    }
+
+    /**
+     * 若一个表达式的左值就是某个变量本身，返回该变量名，否则返回 null。
+     * 需要穿过括号、类型转换以及赋值表达式（赋值表达式的结果是左侧的左值）。
+     */
+    static String lvalueName(ParseTree tree) {
+        while (true) {
+            if (tree instanceof MiniDecafParser.IdentPrimaryContext)
+                return ((MiniDecafParser.IdentPrimaryContext) tree).IDENT().getText();
+            else if (tree instanceof MiniDecafParser.CastUnaryContext)
+                tree = ((MiniDecafParser.CastUnaryContext) tree).unary();
+            else if (tree instanceof MiniDecafParser.AssignmentContext && tree.getChildCount() > 1)
+                tree = ((MiniDecafParser.AssignmentContext) tree).unary();
+            else if (tree instanceof MiniDecafParser.ParenthesizedPrimaryContext)
+                tree = ((MiniDecafParser.ParenthesizedPrimaryContext) tree).expression();
+            else if (tree.getChildCount() == 1 && !(tree.getChild(0) instanceof TerminalNode))
+                tree = tree.getChild(0);
+            else
+                return null;
+        }
+    }
+
+    /**
+     * 判断分析树中是否含有函数调用。
+     */
+    static boolean containsCall(ParseTree tree) {
+        if (tree instanceof MiniDecafParser.FunctionPostfixContext)
+            return true;
+        for (int i = 0; i < tree.getChildCount(); ++i)
+            if (containsCall(tree.getChild(i)))
+                return true;
+        return false;
+    }
+
+    /**
+     * 判断分析树中是否含有类型转换。没有类型转换时，不同类型的左值不会指向同一块内存。
+     */
+    static boolean containsCast(ParseTree tree) {
+        if (tree instanceof MiniDecafParser.CastUnaryContext)
+            return true;
+        for (int i = 0; i < tree.getChildCount(); ++i)
+            if (containsCast(tree.getChild(i)))
+                return true;
+        return false;
+    }
+}
@@ -0,0 +1,179 @@
+package minidecaf;
+
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+import java.math.BigInteger;
+import java.util.*;
+
+/**
+ * 全局变量分析：在生成代码之前，对整个程序找出只读的全局变量，以及每个函数中经常访问的全局变量。
+ * <p>
+ * 从不被赋值、也从不被取地址的标量全局变量在整个程序运行期间都等于初值（没有初值时为 0），读取它时可以直接使用初值，
+ * 它也不再需要存储空间。只以完整的下标被读取的全局数组从不被写入，它的元素都是 0，可以放在只读数据段中。
+ * 与逃逸分析一样，变量按名字区分：局部变量被赋值或取地址时，同名的全局变量也视为可能被写入，这是保守的。
+ * <p>
+ * 其余的全局变量在每个函数中按访问次数加权（循环中的访问权重更高），权重足够大的全局变量的地址
+ * 可以在函数开头算出并放在寄存器中。函数中有同名的参数或局部变量时不这样做。
+ */
+public final class GlobalAnalysis extends MiniDecafBaseVisitor<Void> {
+    private static final int LOOP_WEIGHT = 8; // 循环中的一次访问相当于循环外的访问次数
+    private static final int REGISTER_WEIGHT = 3; // 地址放在寄存器中所需的最小权重
+    private final Map<String, Integer> initialValues = new HashMap<>(); // 标量全局变量 -> 初值
+    private final Map<String, Integer> arrayDimensions = new HashMap<>(); // 全局数组 -> 维数
+    private final Set<String> writtenNames = new HashSet<>(); // 被赋值或取地址的变量名
+    private final Set<String> decayedNames = new HashSet<>(); // 不是作为完整下标的基址出现的全局数组名
+    private final Map<String, Map<String, Integer>> useTable = new HashMap<>(); // 函数名 -> 变量名 -> 访问权重
+    private final Map<String, Set<String>> localTable = new HashMap<>(); // 函数名 -> 参数和局部变量名
+    private String currentFunction;
+    private int loopDepth;
+
+    @Override
+    public Void visitGlobalIntOrPointerDecl(MiniDecafParser.GlobalIntOrPointerDeclContext ctx) {
+        String name = ctx.IDENT().getText();
+        if (ctx.NUM() != null)
+            initialValues.put(name, new BigInteger(ctx.NUM().getText()).intValue()); // 与 .word 一样截断为 32 位
+        else
+            initialValues.putIfAbsent(name, 0);
+        return null;
+    }
+
+    @Override
+    public Void visitGlobalArrayDecl(MiniDecafParser.GlobalArrayDeclContext ctx) {
+        arrayDimensions.put(ctx.IDENT().getText(), ctx.NUM().size());
+        return null;
+    }
+
+    @Override
+    public Void visitDefineFunction(MiniDecafParser.DefineFunctionContext ctx) {
+        currentFunction = ctx.IDENT(0).getText();
+        useTable.put(currentFunction, new HashMap<>());
+        Set<String> locals = new HashSet<>();
+        for (int i = 1; i < ctx.IDENT().size(); ++i)
+            locals.add(ctx.IDENT(i).getText());
+        localTable.put(currentFunction, locals);
+        return visitChildren(ctx);
+    }
+
+    @Override
+    public Void visitLocalIntOrPointerDecl(MiniDecafParser.LocalIntOrPointerDeclContext ctx) {
+        localTable.get(currentFunction).add(ctx.IDENT().getText());
+        return visitChildren(ctx);
+    }
+
+    @Override
+    public Void visitLocalArrayDecl(MiniDecafParser.LocalArrayDeclContext ctx) {
+        localTable.get(currentFunction).add(ctx.IDENT().getText());
+        return visitChildren(ctx);
+    }
+
+    @Override
+    public Void visitForStatement(MiniDecafParser.ForStatementContext ctx) {
+        loopDepth++;
+        visitChildren(ctx);
+        loopDepth--;
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStatement(MiniDecafParser.WhileStatementContext ctx) {
+        loopDepth++;
+        visitChildren(ctx);
+        loopDepth--;
+        return null;
+    }
+
+    @Override
+    public Void visitDoWhileStatement(MiniDecafParser.DoWhileStatementContext ctx) {
+        loopDepth++;
+        visitChildren(ctx);
+        loopDepth--;
+        return null;
+    }
+
+    @Override
+    public Void visitAssignment(MiniDecafParser.AssignmentContext ctx) {
+        if (ctx.getChildCount() > 1)
+            markWritten(ctx.unary());
+        return visitChildren(ctx);
+    }
+
+    @Override
+    public Void visitOperatorUnary(MiniDecafParser.OperatorUnaryContext ctx) {
+        if (ctx.getChild(0).getText().equals("&"))
+            markWritten(ctx.unary());
+        return visitChildren(ctx);
+    }
+
+    /**
+     * 记录左值所在的变量可能被写入：左值是变量本身，或者是变量带下标（可以穿过括号、类型转换和赋值表达式）。
+     */
+    private void markWritten(ParseTree lvalue) {
+        ParseTree tree = lvalue;
+        while (true) {
+            if (tree instanceof MiniDecafParser.IdentPrimaryContext) {
+                writtenNames.add(tree.getText());
+                return;
+            } else if (tree instanceof MiniDecafParser.ArrayPostfixContext)
+                tree = ((MiniDecafParser.ArrayPostfixContext) tree).postfix();
+            else if (tree instanceof MiniDecafParser.CastUnaryContext)
+                tree = ((MiniDecafParser.CastUnaryContext) tree).unary();
+            else if (tree instanceof MiniDecafParser.AssignmentContext && tree.getChildCount() > 1)
+                tree = ((MiniDecafParser.AssignmentContext) tree).unary();
+            else if (tree instanceof MiniDecafParser.ParenthesizedPrimaryContext)
+                tree = ((MiniDecafParser.ParenthesizedPrimaryContext) tree).expression();
+            else if (tree.getChildCount() == 1 && !(tree.getChild(0) instanceof TerminalNode))
+                tree = tree.getChild(0);
+            else
+                return; // 通过指针写入，指针指向的数组在退化为指针时已经记录
+        }
+    }
+
+    @Override
+    public Void visitIdentPrimary(MiniDecafParser.IdentPrimaryContext ctx) {
+        String name = ctx.IDENT().getText();
+        useTable.get(currentFunction).merge(name, loopDepth > 0 ? LOOP_WEIGHT : 1, Integer::sum);
+        // 数组名只能作为完整下标的基址出现，否则它会退化为指针，之后可能通过指针写入
+        int subscripts = 0;
+        ParseTree tree = ctx.getParent();
+        while (tree.getParent() instanceof MiniDecafParser.ArrayPostfixContext
+                && ((MiniDecafParser.ArrayPostfixContext) tree.getParent()).postfix() == tree) {
+            tree = tree.getParent();
+            subscripts++;
+        }
+        if (arrayDimensions.containsKey(name) && subscripts != arrayDimensions.get(name))
+            decayedNames.add(name);
+        return null;
+    }
+
+    /**
+     * 只读的标量全局变量的值，不是只读的标量全局变量时返回 null。
+     */
+    public Integer constantValue(String global) {
+        return writtenNames.contains(global) ? null : initialValues.get(global);
+    }
+
+    /**
+     * 全局数组是否只读。
+     */
+    public boolean isReadOnlyArray(String global) {
+        return arrayDimensions.containsKey(global) && !writtenNames.contains(global) && !decayedNames.contains(global);
+    }
+
+    /**
+     * 函数中值得把地址放在寄存器中的全局变量，按访问权重从大到小排列。
+     */
+    public List<String> frequentGlobals(String function) {
+        List<String> result = new ArrayList<>();
+        Set<String> locals = localTable.getOrDefault(function, Set.of());
+        for (var entry : useTable.getOrDefault(function, Map.of()).entrySet()) {
+            String name = entry.getKey();
+            if (entry.getValue() >= REGISTER_WEIGHT && !locals.contains(name)
+                    && (arrayDimensions.containsKey(name) || initialValues.containsKey(name)) && constantValue(name) == null)
+                result.add(name);
+        }
+        Map<String, Integer> uses = useTable.get(function);
+        result.sort(Comparator.comparing((String name) -> -uses.get(name)).thenComparing(name -> name));
+        return result;
+    }
+}
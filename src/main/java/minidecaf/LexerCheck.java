@@ -0,0 +1,42 @@
+package minidecaf;
+
+import org.antlr.v4.runtime.CharStreams;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 词法分析器的一致性检查：对目录中的每个程序比较 {@link TableLexer} 与 ANTLR 生成的 {@link MiniDecafLexer}
+ * 得到的词法单元序列，与 --lexer=check 相同。由 gradle 的 lexerCheck 任务运行，有不同时以非零状态退出。
+ */
+public final class LexerCheck {
+    private LexerCheck() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.out.println("Usage: LexerCheck <directory>...");
+            System.exit(2);
+        }
+        List<Path> programs = new ArrayList<>();
+        for (String directory : args)
+            try (var stream = Files.list(Path.of(directory))) {
+                stream.filter(path -> path.toString().endsWith(".c")).sorted().forEach(programs::add);
+            }
+        int failures = 0;
+        for (Path program : programs) {
+            String file = program.toString();
+            String mismatch = TableLexer.compare(new MiniDecafLexer(CharStreams.fromFileName(file)),
+                    TableLexer.fromFileName(file));
+            if (mismatch != null) {
+                System.out.println(file + ": " + mismatch);
+                failures++;
+            }
+        }
+        System.out.println(programs.size() + " programs, " + failures + " lexer mismatches");
+        if (failures > 0)
+            System.exit(1);
+    }
+}
@@ -0,0 +1,94 @@
+package minidecaf;
+
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 循环的写入摘要：循环中（包括条件、更新和嵌套的循环）可能被写入的变量和内存，用于判断表达式是否是循环不变量。
+ * <p>
+ * MiniDecaf 的循环都是结构化的，循环语句本身就是控制流图中的自然循环：循环头是条件判断处，回边来自循环体末尾，
+ * break 和 continue 只能跳到循环出口和循环头。因此直接在分析树上按名字收集写入即可，同名的变量视为同一个，这是保守的。
+ */
+public final class LoopSummary {
+    public final Set<String> writtenNames = new HashSet<>(); // 直接被赋值的变量名
+    public final Map<String, Integer> subscriptStores = new HashMap<>(); // 通过下标写入的变量名（数组或指针）-> 最多的下标个数
+    public boolean indirectStores; // 是否有无法归到某个变量名的写入，如 *p = ...
+    public boolean calls; // 是否有函数调用，调用可能写入任何全局变量和逃逸的内存
+    public final Set<String> declaredNames = new HashSet<>(); // 循环中声明的变量名
+    public final Set<String> declaredScalars = new HashSet<>(); // 循环中声明的标量（整数和指针）变量名
+    public final Map<String, Integer> declaredArrays = new HashMap<>(); // 循环中声明的数组名 -> 维数，元素是指针时为 0
+    public int registerDemand; // 循环中可能需要寄存器的声明和实参个数
+
+    private LoopSummary() {
+    }
+
+    /**
+     * 收集循环中的写入。
+     *
+     * @param loop 循环语句
+     */
+    public static LoopSummary of(ParseTree loop) {
+        LoopSummary summary = new LoopSummary();
+        summary.scan(loop);
+        return summary;
+    }
+
+    private void scan(ParseTree tree) {
+        if (tree instanceof MiniDecafParser.AssignmentContext && tree.getChildCount() > 1)
+            store(((MiniDecafParser.AssignmentContext) tree).unary());
+        else if (tree instanceof MiniDecafParser.FunctionPostfixContext) {
+            calls = true;
+            registerDemand += ((MiniDecafParser.FunctionPostfixContext) tree).expression().size();
+        } else if (tree instanceof MiniDecafParser.LocalIntOrPointerDeclContext) {
+            String name = ((MiniDecafParser.LocalIntOrPointerDeclContext) tree).IDENT().getText();
+            declaredNames.add(name);
+            declaredScalars.add(name);
+            registerDemand++;
+        } else if (tree instanceof MiniDecafParser.LocalArrayDeclContext) {
+            var declaration = (MiniDecafParser.LocalArrayDeclContext) tree;
+            String name = declaration.IDENT().getText();
+            declaredNames.add(name);
+            // 同名的数组声明多次时取维数最少的，元素是指针的数组不能保证写入只落在数组之内
+            int dimensions = declaration.type().getChildCount() == 1 ? declaration.NUM().size() : 0;
+            declaredArrays.merge(name, dimensions, Math::min);
+        }
+        for (int i = 0; i < tree.getChildCount(); ++i)
+            scan(tree.getChild(i));
+    }
+
+    /**
+     * 记录对左值的写入：左值是变量本身时记录变量名，是带下标的变量时记录被写入元素的变量名，否则是间接写入。
+     */
+    private void store(ParseTree lvalue) {
+        String name = EscapeAnalysis.lvalueName(lvalue);
+        if (name != null) {
+            writtenNames.add(name);
+            return;
+        }
+        ParseTree tree = lvalue;
+        while (!(tree instanceof MiniDecafParser.ArrayPostfixContext)) {
+            if (tree instanceof MiniDecafParser.ParenthesizedPrimaryContext)
+                tree = ((MiniDecafParser.ParenthesizedPrimaryContext) tree).expression();
+            else if (tree.getChildCount() == 1 && !(tree.getChild(0) instanceof TerminalNode))
+                tree = tree.getChild(0);
+            else {
+                indirectStores = true;
+                return;
+            }
+        }
+        int subscripts = 0;
+        while (tree instanceof MiniDecafParser.ArrayPostfixContext) {
+            tree = ((MiniDecafParser.ArrayPostfixContext) tree).postfix();
+            subscripts++;
+        }
+        if (tree.getChildCount() == 1 && tree.getChild(0) instanceof MiniDecafParser.IdentPrimaryContext)
+            subscriptStores.merge(tree.getText(), subscripts, Math::max);
+        else
+            indirectStores = true;
+    }
+}
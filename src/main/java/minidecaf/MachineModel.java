@@ -0,0 +1,47 @@
+package minidecaf;
+
+/**
+ * 顺序单发射处理器的机器模型：各类指令从发射到结果可用所需的周期数。
+ * 结果尚未可用时，使用它的指令需要停顿等待。
+ */
+public final class MachineModel {
+    public int alu = 1; // 整数运算、立即数加载、寄存器间传送
+    public int load = 2; // lw，紧跟其后使用结果会停顿一个周期
+    public int mul = 3; // mul 系列
+    public int div = 20; // div、rem 系列
+
+    /**
+     * 解析形如 "load:3,mul:4" 的延迟描述，未给出的指令类别保持默认值。
+     *
+     * @throws IllegalArgumentException 描述不合法
+     */
+    public static MachineModel parse(String description) {
+        MachineModel model = new MachineModel();
+        for (String item : description.split(",")) {
+            String[] pair = item.split(":");
+            if (pair.length != 2)
+                throw new IllegalArgumentException("invalid latency " + item);
+            int latency;
+            try {
+                latency = Integer.parseInt(pair[1]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("invalid latency " + item);
+            }
+            if (latency < 1)
+                throw new IllegalArgumentException("latency must be positive in " + item);
+            switch (pair[0]) {
+                case "alu" -> model.alu = latency;
+                case "load" -> model.load = latency;
+                case "mul" -> model.mul = latency;
+                case "div" -> model.div = latency;
+                default -> throw new IllegalArgumentException("unknown instruction class " + pair[0]);
+            }
+        }
+        return model;
+    }
+
+    @Override
+    public String toString() {
+        return "alu:" + alu + ",load:" + load + ",mul:" + mul + ",div:" + div;
+    }
+}
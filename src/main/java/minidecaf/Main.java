@@ -11,25 +11,78 @@ import java.io.FileWriter;
 public class Main {
     public static void main(String[] args) throws Exception {
         //检验输入输出文件是否完整
-        if (args.length != 2 || args[0].equals("-h") || args[0].equals("--help")) {
-            System.out.println("Usage: minidecaf <input minidecaf file> <output riscv assembly file>\n");
+        if (args.length == 0 || args[0].equals("-h") || args[0].equals("--help")) {
+            System.out.println(Options.USAGE);
+            return;
+        }
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage() + "\n" + Options.USAGE);
             return;
         }
         // input file --- lexer ---> tokens
-        CharStream inputCharStream = CharStreams.fromFileName(args[0]);
-        MiniDecafLexer lexer = new MiniDecafLexer(inputCharStream);
+        TokenSource lexer;
+        if (options.lexer.equals("antlr"))
+            lexer = new MiniDecafLexer(CharStreams.fromFileName(options.inputFile));
+        else
+            lexer = TableLexer.fromFileName(options.inputFile);
+        if (options.lexer.equals("check")) { // 两个词法分析器得到的词法单元应当完全相同
+            String mismatch = TableLexer.compare(new MiniDecafLexer(CharStreams.fromFileName(options.inputFile)),
+                    TableLexer.fromFileName(options.inputFile));
+            if (mismatch != null) {
+                System.out.println(mismatch);
+                System.exit(1);
+            }
+        }
         CommonTokenStream tokenStream = new CommonTokenStream(lexer);
         // tokens --- parser ---> tree
         MiniDecafParser parser = new MiniDecafParser(tokenStream);
         parser.setErrorHandler(new BailErrorStrategy()); // 输入错误直接退出
         ParseTree tree = parser.program();
+        // tree --- escape analysis ---> variables that may live in registers
+        EscapeAnalysis escapeAnalysis = new EscapeAnalysis();
+        escapeAnalysis.visit(tree);
+        // tree --- dead code analysis ---> reachable functions, referenced globals and variables that are read
+        DeadCodeAnalysis deadCodeAnalysis = new DeadCodeAnalysis();
+        deadCodeAnalysis.visit(tree);
+        // tree --- global analysis ---> read-only globals and globals whose addresses are kept in registers
+        GlobalAnalysis globalAnalysis = new GlobalAnalysis();
+        globalAnalysis.visit(tree);
+        // tree --- profile points ---> counters of the instrumented program and keys of the profile
+        ProfilePoints profilePoints = new ProfilePoints();
+        profilePoints.visit(tree);
+        // tree --- pure function analysis ---> functions whose calls with constant arguments are evaluated at compile time
+        PureFunctionEvaluator pureFunctionEvaluator = new PureFunctionEvaluator(options.evalFuel);
+        pureFunctionEvaluator.visit(tree);
+        Profile profile = null;
+        if (options.profileFile != null) {
+            try {
+                profile = Profile.read(options.profileFile);
+            } catch (IllegalArgumentException e) { // 剖析数据格式错误
+                System.out.println(e.getMessage());
+                System.exit(1);
+            }
+        }
         StringBuilder stringBuilder = new StringBuilder();
         // tree --- visitor ---> riscv assembly
-        MainVisitor visitor = new MainVisitor(stringBuilder);
+        MainVisitor visitor = new MainVisitor(stringBuilder, escapeAnalysis, deadCodeAnalysis, globalAnalysis, profilePoints,
+                pureFunctionEvaluator, profile, options);
         visitor.visit(tree);
+        String assembly = stringBuilder.toString();
+        // 调度之前改用可以压缩的寄存器，调度之后再压缩，调度器只需处理 32 位指令
+        if (options.compress)
+            assembly = Compressor.preferCompressibleRegisters(assembly);
+        // riscv assembly --- scheduler ---> reordered riscv assembly
+        if (options.schedule)
+            assembly = new Scheduler(options.machineModel).schedule(assembly);
+        // riscv assembly --- compressor ---> rv32c assembly
+        if (options.compress)
+            assembly = new Compressor().compress(assembly);
 
-        FileWriter writer = new FileWriter(args[1]);
-        writer.write(stringBuilder.toString());
+        FileWriter writer = new FileWriter(options.outputFile);
+        writer.write(assembly);
         writer.close();
     }
 }
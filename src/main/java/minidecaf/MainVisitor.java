@@ -1,6 +1,7 @@
 package minidecaf;
 
 import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.ParseTree;
 import org.antlr.v4.runtime.tree.TerminalNode;
 
 import java.math.BigInteger;
@@ -10,29 +11,87 @@ public final class MainVisitor extends MiniDecafBaseVisitor<Type> {
     private final StringBuilder stringBuilder; // 生成的目标汇编代码
     private boolean containsMain = false; // 标志是否有主函数
     private String currentFunction; // 当前函数
-    private int localCount; // 局部变量计数
+    private String exitLabel; // 返回语句跳转的标签，内联展开的函数返回到调用点之后
+    private int localCount; // 当前存活的局部变量所占的栈槽数
+    private int maxLocalCount; // 函数中同时存活的局部变量栈槽数的最大值，决定栈帧大小
+    private int totalLocalCount; // 不复用栈槽时所需的栈槽数，仅用于报告
+    private final Stack<Integer> scopeLocalCount = new Stack<>(); // 进入各层作用域时的栈槽数
+    private static final int SAVED_REGISTER_NUM = 11; // 可用于存放变量的被调用者保存寄存器 s1-s11
+    private int registerCount; // 当前存活的寄存器变量数，它们依次占用 s1, s2, ...
+    private int maxRegisterCount; // 函数中用到的被调用者保存寄存器数，需要在序言和尾声中保存和恢复
+    private final Stack<Integer> scopeRegisterCount = new Stack<>(); // 进入各层作用域时的寄存器变量数
+    private String registerLValue; // 刚访问过的寄存器变量所在的寄存器，此时栈上没有压入它的地址
+    private int lastPushPosition = -1; // 最近一次压栈指令在汇编代码中的起止位置，用于消去紧随其后的出栈
+    private int lastPushEnd = -1;
+    private String lastPushRegister;
+    private final ValueTable valueTable = new ValueTable(); // 值编号表，用于复用地址计算和访存的结果
+    private ValueTable.Value lastLValue; // 刚压栈的左值地址的值编号，不是纯表达式时为 null
+    private int lastLValueStart; // 刚压栈的左值地址的代码起始位置，代码不能删除时为 -1
+    private boolean typeBasedAlias; // 程序中没有类型转换时，不同类型的内存不会互为别名
     private final Stack<Map<String, Symbol>> symbolTable = new Stack<>(); // 符号表
+    private final Map<String, String> globalAddressRegisters = new HashMap<>(); // 全局变量 -> 当前函数中存放其地址的寄存器
+    private static final int GLOBAL_ADDRESS_REGISTERS = 4; // 每个函数中最多用于存放全局变量地址的寄存器数
+    private int scopeBase; // 当前函数最外层作用域在符号表中的位置，内联展开的函数看不到调用者的局部变量
     private final Map<String, Type> declaredGlobalTable = new HashMap<>();
     private final Map<String, Type> initializedGlobalTable = new HashMap<>();
+    private final StringBuilder coldCode = new StringBuilder(); // 不太可能执行的代码块，放在函数末尾
     private int condCount = 0; // 用于给条件语句和条件表达式所用的标签编号
     private int loopCount = 0; // 用于给循环语句所用的标签编号
     private final Stack<Integer> currentLoop = new Stack<>(); // 当前位置的循环标签编号
+    private final Stack<Integer> currentBreak = new Stack<>(); // 当前位置 break 跳出的循环或 switch 语句的标签编号
+    private static final int JUMP_TABLE_MIN_CASES = 4; // 使用跳转表所需的最少 case 数
     private final Map<String, FunctionType> declaredFunctionTable = new HashMap<>(); // 已声明函数表
     private final Map<String, FunctionType> definedFunctionTable = new HashMap<>(); // 已定义函数表
+    private final Map<String, MiniDecafParser.DefineFunctionContext> functionDefinitions = new HashMap<>(); // 已生成代码的函数定义，用于内联
+    private static final int INLINE_LIMIT = 64; // 内联展开的函数体规模上限，以词法单元数计
+    private static final int HOT_UNROLL_SCALE = 4; // 热点循环的展开规模上限是一般循环的倍数
+    private int inlineCount = 0; // 用于给内联展开的函数的返回标签编号
+    private final EscapeAnalysis escapeAnalysis;
+    private final DeadCodeAnalysis deadCodeAnalysis;
+    private final GlobalAnalysis globalAnalysis;
+    private final ProfilePoints profilePoints;
+    private final PureFunctionEvaluator pureFunctionEvaluator;
+    private final Profile profile; // 剖析数据，不使用时为 null
+    private final Options options;
 
-    MainVisitor(StringBuilder stringBuilder) {
+    MainVisitor(StringBuilder stringBuilder, EscapeAnalysis escapeAnalysis, DeadCodeAnalysis deadCodeAnalysis,
+                GlobalAnalysis globalAnalysis, ProfilePoints profilePoints, PureFunctionEvaluator pureFunctionEvaluator, Profile profile, Options options) {
         this.stringBuilder = stringBuilder;
+        this.escapeAnalysis = escapeAnalysis;
+        this.deadCodeAnalysis = deadCodeAnalysis;
+        this.globalAnalysis = globalAnalysis;
+        this.profilePoints = profilePoints;
+        this.pureFunctionEvaluator = pureFunctionEvaluator;
+        this.profile = profile;
+        this.options = options;
     }
 
     @Override
     public Type visitProgram(MiniDecafParser.ProgramContext ctx) {
-        for (var child : ctx.children)
-            visit(child);
+        typeBasedAlias = !EscapeAnalysis.containsCast(ctx);
+        for (var child : ctx.children) {
+            // 从 main 不可达的函数仍然要做语义检查，但不输出代码
+            if (child instanceof MiniDecafParser.DefineFunctionContext
+                    && !deadCodeAnalysis.isReachable(((MiniDecafParser.DefineFunctionContext) child).IDENT(0).getText())) {
+                int position = stringBuilder.length();
+                visit(child);
+                discardCode(position);
+            } else
+                visit(child);
+        }
+        // 只读的标量全局变量在使用处直接取初值，不需要存储空间
         for (String global : declaredGlobalTable.keySet())
-            if (initializedGlobalTable.get(global) == null) {
-                stringBuilder.append("\t.comm "). // 未初始化的全局变量在 bss 段中
-                        append(global).append(", ").append(declaredGlobalTable.get(global).getSize()).append(", 4\n"); // 对齐字节数为 4
+            if (initializedGlobalTable.get(global) == null && deadCodeAnalysis.isReferenced(global)
+                    && globalAnalysis.constantValue(global) == null) {
+                if (globalAnalysis.isReadOnlyArray(global)) // 从不被写入的数组放在只读数据段中
+                    stringBuilder.append("\t.section .rodata\n\t.align 2\n").append(global).append(":\n")
+                            .append("\t.zero ").append(declaredGlobalTable.get(global).getSize()).append("\n");
+                else
+                    stringBuilder.append("\t.comm "). // 未初始化的全局变量在 bss 段中
+                            append(global).append(", ").append(declaredGlobalTable.get(global).getSize()).append(", 4\n"); // 对齐字节数为 4
             }
+        if (options.instrumentFile != null)
+            emitProfileDump();
         if (!containsMain) reportError("no main function found", ctx);
         return new Type.NoType();
     }
@@ -41,6 +100,7 @@ public final class MainVisitor extends MiniDecafBaseVisitor<Type> {
     public Type visitDefineFunction(MiniDecafParser.DefineFunctionContext ctx) {
         Type returnType = visit(ctx.type(0));
         currentFunction = ctx.IDENT(0).getText();
+        exitLabel = ".exit." + currentFunction;
         if (declaredGlobalTable.get(currentFunction) != null)
             reportError("a global variable and a function have the same name", ctx);
         if (currentFunction.equals("main")) containsMain = true; // 出现主函数即记录
@@ -63,34 +123,73 @@ public final class MainVisitor extends MiniDecafBaseVisitor<Type> {
         stackPush("fp");
         stringBuilder.append("\tmv fp, sp\n");
         int backtracePosition = stringBuilder.length();
-        localCount = 0;
-        symbolTable.add(new HashMap<>()); // 为函数开启新的作用域
+        localCount = maxLocalCount = totalLocalCount = 0;
+        registerCount = maxRegisterCount = 0;
+        valueTable.reset();
+        coldCode.setLength(0);
+        enterScope(); // 为函数开启新的作用域
         // 将函数的参数作为局部变量取出，这里参数的存储方式遵循 riscv gcc 的调用约定
         for (int i = 1; i < ctx.IDENT().size(); ++i) {
             String parameterName = ctx.IDENT().get(i).getText();
             if (symbolTable.peek().get(parameterName) != null)
                 reportError("two parameters have the same name", ctx);
-            if (i < 9) { // 前8个参数使用寄存器 a0-a7 储存
-                localCount++;
-                stringBuilder.append("\tsw a").append(i - 1).append(", ").append(-4 * i).append("(fp)\n");
-                symbolTable.peek().put(parameterName, new Symbol(parameterName, -4 * i,
-                        functionType.parameterTypes.get(i - 1).valueCast(ValueKind.LVALUE)));
+            Type parameterType = functionType.parameterTypes.get(i - 1).valueCast(ValueKind.LVALUE);
+            // 没有被取地址的参数直接留在被调用者保存寄存器中
+            String register = escapeAnalysis.isAddressTaken(currentFunction, parameterName) ? null : allocateRegister();
+            if (register != null) {
+                if (i < 9)
+                    stringBuilder.append("\tmv ").append(register).append(", a").append(i - 1).append("\n");
+                else
+                    stringBuilder.append("\tlw ").append(register).append(", ").append(4 * (i - 9 + 2)).append("(fp)\n");
+                symbolTable.peek().put(parameterName, new Symbol(parameterName, register, parameterType));
+            } else if (i < 9) { // 前8个参数使用寄存器 a0-a7 储存
+                int offset = allocateLocal(1);
+                stringBuilder.append("\tsw a").append(i - 1).append(", ").append(offset).append("(fp)\n");
+                symbolTable.peek().put(parameterName, new Symbol(parameterName, offset, parameterType));
             } else { // 剩余参数位于内存中，ra 前
-                symbolTable.peek().put(parameterName, new Symbol(parameterName, 4 * (i - 9 + 2),
-                        functionType.parameterTypes.get(i - 1).valueCast(ValueKind.LVALUE)));
+                symbolTable.peek().put(parameterName, new Symbol(parameterName, 4 * (i - 9 + 2), parameterType));
             }
         }
+        // 经常访问的全局变量的地址在函数开头算出，放在被调用者保存寄存器中，之后每次访问不必重新计算
+        globalAddressRegisters.clear();
+        for (String global : globalAnalysis.frequentGlobals(currentFunction)) {
+            if (declaredGlobalTable.get(global) == null)
+                continue;
+            String register = globalAddressRegisters.size() < GLOBAL_ADDRESS_REGISTERS ? allocateRegister() : null;
+            if (register == null)
+                break;
+            stringBuilder.append("\tlui ").append(register).append(", %hi(").append(global).append(")\n")
+                    .append("\taddi ").append(register).append(", ").append(register).append(", %lo(").append(global).append(")\n");
+            globalAddressRegisters.put(global, register);
+        }
+        countBlock(ctx);
         visit(ctx.compound_statement()); // 函数体
-        symbolTable.pop(); // 删除函数作用域的符号表
+        exitScope(); // 删除函数作用域的符号表
         // 在没有返回语句的情况下，我们默认取 return 0
-        stringBuilder.append("\tli t1, 0\n").append("\taddi sp, sp, -4\n").append("\tsw t1, 0(sp)\n");
-        // 根据局部变量的数量，回填所需的栈空间
-        stringBuilder.insert(backtracePosition, "\taddi sp, sp, " + (-4 * localCount) + "\n");
+        if (!DeadCodeAnalysis.alwaysTransfers(ctx.compound_statement()))
+            stringBuilder.append("\tli t1, 0\n").append("\taddi sp, sp, -4\n").append("\tsw t1, 0(sp)\n");
+        // 根据同时存活的局部变量的最大数量，回填所需的栈空间，并报告栈槽复用前后的栈帧大小
+        // 用到的被调用者保存寄存器保存在局部变量之下
+        int frameSize = 4 * (maxLocalCount + maxRegisterCount);
+        StringBuilder prologue = new StringBuilder();
+        prologue.append("\t# frame: ").append(frameSize).append(" bytes (")
+                .append(4 * (totalLocalCount + maxRegisterCount)).append(" bytes without slot sharing)\n")
+                .append("\taddi sp, sp, ").append(-frameSize).append("\n");
+        for (int i = 1; i <= maxRegisterCount; ++i)
+            prologue.append("\tsw s").append(i).append(", ").append(-4 * (maxLocalCount + i)).append("(fp)\n");
+        stringBuilder.insert(backtracePosition, prologue);
+        lastPushEnd = -1;
         // construct epilogue
-        stringBuilder.append(".exit.").append(currentFunction).append(":\n\tlw a0, 0(sp)\n").append("\tmv sp, fp\n");
+        stringBuilder.append(exitLabel).append(":\n\tlw a0, 0(sp)\n");
+        if (options.instrumentFile != null && currentFunction.equals("main")) // main 返回时写出剖析数据
+            stringBuilder.append("\tcall .profile.dump\n");
+        for (int i = 1; i <= maxRegisterCount; ++i)
+            stringBuilder.append("\tlw s").append(i).append(", ").append(-4 * (maxLocalCount + i)).append("(fp)\n");
+        stringBuilder.append("\tmv sp, fp\n");
         stackPop("fp");
         stackPop("ra");
-        stringBuilder.append("\tret\n\n");
+        stringBuilder.append("\tret\n").append(coldCode).append("\n");
+        functionDefinitions.put(currentFunction, ctx);
         return new Type.NoType();
     }
 
@@ -123,25 +222,65 @@ public final class MainVisitor extends MiniDecafBaseVisitor<Type> {
 
     @Override
     public Type visitCompound_statement(MiniDecafParser.Compound_statementContext ctx) {
-        for (var blockItem : ctx.blockitem())
-            visit(blockItem);
+        visitBlockItems(ctx.blockitem());
         return new Type.NoType();
     }
 
+    /**
+     * 依次生成一串语句和声明的代码。
+     */
+    private void visitBlockItems(List<MiniDecafParser.BlockitemContext> blockItems) {
+        boolean reachable = true;
+        for (var blockItem : blockItems) {
+            if (reachable) {
+                visit(blockItem);
+                reachable = !DeadCodeAnalysis.alwaysTransfers(blockItem);
+            } else { // return、break、continue 之后的语句不可达，只做语义检查
+                int position = stringBuilder.length();
+                int coldPosition = coldCode.length();
+                valueTable.clear(); // 不可达的代码不能复用（从而改动）之前的代码
+                visit(blockItem);
+                discardCode(position);
+                coldCode.setLength(coldPosition);
+            }
+        }
+    }
+
     @Override
     public Type visitLocalIntOrPointerDecl(MiniDecafParser.LocalIntOrPointerDeclContext ctx) {
         Type type = visit(ctx.type());
         String name = ctx.IDENT().getText();
         if (symbolTable.peek().get(name) != null) // 若重复声明则报错
             reportError("try declaring a declared variable", ctx);
-        symbolTable.peek().put(name, new Symbol(name, -4 * ++localCount, type.valueCast(ValueKind.LVALUE)));// 否则加入符号表
         var expr = ctx.expression();
+        if (!deadCodeAnalysis.isRead(currentFunction, name)) { // 值从不被读取的变量不分配存储空间
+            symbolTable.peek().put(name, Symbol.dead(name, type.valueCast(ValueKind.LVALUE)));
+            if (expr != null)
+                visitDeadStore(expr, type, ctx);
+            return new Type.NoType();
+        }
+        // 没有被取地址的局部变量放在寄存器中，否则放在栈上
+        String register = escapeAnalysis.isAddressTaken(currentFunction, name) ? null : allocateRegister();
+        int offset = 0;
+        if (register != null)
+            symbolTable.peek().put(name, new Symbol(name, register, type.valueCast(ValueKind.LVALUE)));
+        else {
+            offset = allocateLocal(1);
+            symbolTable.peek().put(name, new Symbol(name, offset, type.valueCast(ValueKind.LVALUE)));// 否则加入符号表
+        }
         if (expr != null) {
             Type exprType = castToRValue(visit(expr), ctx);
             if (!exprType.equals(type))
                 reportError("initialize value of type " + exprType + " to some variable of type " + type, ctx);
-            stackPop("t0");
-            stringBuilder.append("\tsw t0, ").append(-4 * localCount).append("(fp)\n");
+            if (register != null) {
+                stackPop(register);
+                valueTable.kill(register);
+            } else {
+                stackPop("t0");
+                stringBuilder.append("\tsw t0, ").append(offset).append("(fp)\n");
+                valueTable.kill(memoryClass(type));
+                valueTable.kill("&fp" + offset);
+            }
         }
         return new Type.NoType();
     }
@@ -160,8 +299,8 @@ public final class MainVisitor extends MiniDecafBaseVisitor<Type> {
         }
         assert types.getFirst() instanceof Type.ArrayType;
         Type type = types.getFirst();
-        localCount += type.getSize() / 4; // 为数组每个元素预留空间
-        symbolTable.peek().put(arrayName, new Symbol(arrayName, -4 * localCount, type));
+        int offset = allocateLocal(type.getSize() / 4); // 为数组每个元素预留空间
+        symbolTable.peek().put(arrayName, new Symbol(arrayName, offset, type));
         return new Type.NoType();
     }
 
@@ -181,8 +320,9 @@ public final class MainVisitor extends MiniDecafBaseVisitor<Type> {
             if (initializedGlobalTable.get(name) != null)
                 reportError("initialize a global variable twice", ctx);
             initializedGlobalTable.put(name, type.valueCast(ValueKind.RVALUE));
-            stringBuilder.append("\t.data\n") // 全局变量要放在 data 段中
-                    .append("\t.align 4\n").append(name).append(":\n").append("\t.word ").append(num.getText()).append("\n");
+            if (deadCodeAnalysis.isReferenced(name) && globalAnalysis.constantValue(name) == null)
+                stringBuilder.append("\t.data\n") // 全局变量要放在 data 段中
+                        .append("\t.align 4\n").append(name).append(":\n").append("\t.word ").append(num.getText()).append("\n");
         }
         return new Type.NoType();
     }
@@ -213,40 +353,125 @@ public final class MainVisitor extends MiniDecafBaseVisitor<Type> {
         Type expectedType = definedFunctionTable.get(currentFunction).returnType;
         if (!expectedType.equals(returnType))
             reportError("return type " + returnType + " is inconsistent with expected return type " + expectedType, ctx);
-        stringBuilder.append("\tj .exit.").append(currentFunction).append("\n");
+        stringBuilder.append("\tj ").append(exitLabel).append("\n");
         return new Type.NoType();
     }
 
     @Override
     public Type visitExpressionStatement(MiniDecafParser.ExpressionStatementContext ctx) {
         var expr = ctx.expression();
-        if (expr != null) {
-            visit(ctx.expression());
-            stringBuilder.append("\taddi sp, sp, 4\n");
-        }
+        if (expr != null)
+            visitDiscarded(expr);
         return new Type.NoType();
     }
 
     @Override
     public Type visitIfStatement(MiniDecafParser.IfStatementContext ctx) {
         int currentCondNo = condCount++;
-        typeCheck(visit(ctx.expression()), Type.IntType.class, ctx);
-        stackPop("t0");
-        stringBuilder.append("\tbeqz t0, .else").append(currentCondNo).append("\n"); // 根据条件表达式的值判断是否要直接跳转至 else 分支
-        visit(ctx.statement(0));
-        stringBuilder.append("\tj .afterCondition").append(currentCondNo).append("\n"); // 在 then 分支结束后直接跳至分支语句末尾
-        stringBuilder.append(".else").append(currentCondNo).append(":\n"); // 标记 else 分支开始部分的 label
-        if (ctx.statement().size() > 1)
-            visit(ctx.statement(1));
-        stringBuilder.append(".afterCondition").append(currentCondNo).append(":\n");
+        var thenStatement = ctx.statement(0);
+        var elseStatement = ctx.statement().size() > 1 ? ctx.statement(1) : null;
+        boolean thenTransfers = DeadCodeAnalysis.alwaysTransfers(thenStatement);
+        boolean elseTransfers = elseStatement != null && DeadCodeAnalysis.alwaysTransfers(elseStatement);
+        // 不太可能执行的分支移到函数末尾，让另一个分支顺序执行下去。有剖析数据时按两个分支的执行次数判断，
+        // 否则认为一定会跳走（return、break、continue）的分支不太可能执行。插桩时不调整布局
+        long thenCount = profileCount(thenStatement);
+        long elseCount = profileCount(elseStatement != null ? elseStatement : ctx);
+        boolean thenCold, elseCold;
+        if (options.instrumentFile != null)
+            thenCold = elseCold = false;
+        else if (thenCount >= 0 && elseCount >= 0 && thenCount != elseCount) {
+            thenCold = thenCount < elseCount;
+            elseCold = !thenCold && elseStatement != null;
+        } else {
+            thenCold = thenTransfers && !elseTransfers;
+            elseCold = elseTransfers && !thenTransfers;
+        }
+        String afterLabel = ".afterCondition" + currentCondNo;
+        if (thenCold) {
+            branch(ctx.expression(), true, ".then" + currentCondNo, ctx);
+            var dominator = valueTable.save();
+            visitColdBlock(thenStatement, ".then" + currentCondNo, thenTransfers ? null : afterLabel);
+            valueTable.restore(dominator);
+            if (elseStatement != null)
+                visit(elseStatement);
+            if (!thenTransfers) { // 移走的分支执行完后跳回这里，汇合处不保留之前的值
+                stringBuilder.append(afterLabel).append(":\n");
+                valueTable.clear();
+            }
+            return new Type.NoType();
+        }
+        if (elseCold) {
+            branch(ctx.expression(), false, ".else" + currentCondNo, ctx);
+            var dominator = valueTable.save();
+            visit(thenStatement);
+            var thenValues = valueTable.save();
+            valueTable.restore(dominator);
+            visitColdBlock(elseStatement, ".else" + currentCondNo, elseTransfers ? null : afterLabel);
+            valueTable.restore(thenValues);
+            if (!elseTransfers) {
+                stringBuilder.append(afterLabel).append(":\n");
+                valueTable.clear();
+            }
+            return new Type.NoType();
+        }
+        // 根据条件表达式的值判断是否要直接跳转至 else 分支，没有 else 分支时直接跳转至分支语句末尾
+        // 插桩时即使没有 else 分支也要为条件不成立的一侧计数
+        boolean elsePath = elseStatement != null || options.instrumentFile != null;
+        branch(ctx.expression(), false, elsePath ? ".else" + currentCondNo : afterLabel, ctx);
+        var dominator = valueTable.save(); // 两个分支都由条件部分支配，都从条件部分结束时的值编号表开始
+        countBlock(thenStatement);
+        visit(thenStatement);
+        var thenValues = valueTable.save();
+        valueTable.restore(dominator);
+        if (elsePath) {
+            if (!thenTransfers) // 在 then 分支结束后直接跳至分支语句末尾
+                stringBuilder.append("\tj ").append(afterLabel).append("\n");
+            stringBuilder.append(".else").append(currentCondNo).append(":\n"); // 标记 else 分支开始部分的 label
+            countBlock(elseStatement != null ? elseStatement : ctx);
+            if (elseStatement != null)
+                visit(elseStatement);
+        }
+        stringBuilder.append(afterLabel).append(":\n");
+        // 汇合处只保留两个分支结束时都可用的值
+        if (thenTransfers && elseTransfers)
+            valueTable.clear();
+        else
+            valueTable.restore(ValueTable.merge(thenValues, valueTable.save()));
         return new Type.NoType();
     }
 
+    /**
+     * 生成不太可能执行的分支，并把它移到函数末尾。
+     * 其中的代码不复用之前求出的值，否则需要在移走的代码之前插入指令。
+     *
+     * @param label       分支开始处的标签
+     * @param returnLabel 分支执行完后跳回的标签，分支一定会跳走时为 null
+     */
+    private void visitColdBlock(MiniDecafParser.StatementContext statement, String label, String returnLabel) {
+        valueTable.clear();
+        int position = stringBuilder.length();
+        visit(statement);
+        moveToCold(position, label, returnLabel);
+        valueTable.clear();
+    }
+
+    /**
+     * 把从 position 开始生成的代码移到函数末尾，以 label 标记它的开始，执行完后跳回 returnLabel（为 null 时不跳回）。
+     * 移走的代码中不能有之前求出、尚未复制到寄存器的值被复用。
+     */
+    private void moveToCold(int position, String label, String returnLabel) {
+        coldCode.append(label).append(":\n").append(stringBuilder, position, stringBuilder.length());
+        if (returnLabel != null)
+            coldCode.append("\tj ").append(returnLabel).append("\n");
+        stringBuilder.setLength(position);
+        lastPushEnd = -1;
+    }
+
     @Override
     public Type visitDefaultStatement(MiniDecafParser.DefaultStatementContext ctx) {
-        symbolTable.add(new HashMap<>()); // 创建新的符号表
+        enterScope(); // 创建新的符号表
         visit(ctx.compound_statement());
-        symbolTable.pop(); // 删除该作用域新的符号表
+        exitScope(); // 删除该作用域新的符号表
         return new Type.NoType();
     }
 
@@ -266,70 +491,495 @@ public final class MainVisitor extends MiniDecafBaseVisitor<Type> {
                 else
                     post = (MiniDecafParser.ExpressionContext) (ctx.children.get(i));
             }
-        symbolTable.add(new HashMap<>()); // 开启一个新的作用域
+        // 循环次数在编译期确定的计数循环尝试展开
+        CountedLoop countedLoop = CountedLoop.match(ctx, init, ctrl, post);
+        if (countedLoop != null && unrollForStatement(ctx, countedLoop, init, ctrl, post))
+            return new Type.NoType();
+        enterScope(); // 开启一个新的作用域
         if (ctx.declaration() != null)
             visit(ctx.declaration());
-        else if (init != null) {
-            visit(init);
-            stringBuilder.append("\taddi sp, sp, 4\n");
+        else if (init != null)
+            visitDiscarded(init);
+        countBlock(ctx);
+        // 与 while 循环一样，循环条件放在循环体之后，进入循环之前先检查一次
+        Integer condition = ctrl == null ? null : ConstantEvaluator.evaluate(ctrl);
+        boolean alwaysTrue = ctrl == null || (condition != null && condition != 0);
+        boolean rarelyEntered = !alwaysTrue && isRarelyEntered(ctx, ctx.statement());
+        if (!alwaysTrue)
+            branch(ctrl, rarelyEntered, (rarelyEntered ? ".loop" : ".afterLoop") + currentLoop, ctx);
+        else if (ctrl != null) { // 恒真的条件不生成代码，但仍要做语义检查
+            var control = ctrl;
+            visitChecked(() -> branch(control, false, ".afterLoop" + currentLoop, ctx));
         }
+        int loopStart = stringBuilder.length();
+        var invariants = hoistInvariants(ctx, ctrl, post, ctx.statement());
         stringBuilder.append(".beforeLoop").append(currentLoop).append(":\n");
-        if (ctrl != null) {
-            typeCheck(visit(ctrl), Type.IntType.class, ctx);
-            stringBuilder.append("\tlw t1, 0(sp)\n").append("\taddi sp, sp, 4\n").append("\tbeqz t1, .afterLoop").append(currentLoop).append("\n");
-        }
+        valueTable.clear(); // 循环头有来自循环体的回边，之前求出的值不一定仍然可用
         this.currentLoop.push(currentLoop);
-        symbolTable.add(new HashMap<>()); // 开启一个新的作用域
+        currentBreak.push(currentLoop);
+        enterScope(); // 开启一个新的作用域
+        countBlock(ctx.statement());
         visit(ctx.statement()); // 访问循环体
-        symbolTable.pop(); // 清空当前作用域符号表
+        exitScope(); // 清空当前作用域符号表
         this.currentLoop.pop();
+        currentBreak.pop();
         stringBuilder.append(".continueLoop").append(currentLoop).append(":\n"); // continue 指令需要跳转到这里
-        if (post != null) {
-            visit(post);
-            stringBuilder.append("\taddi sp, sp, 4\n");
-        }
-        symbolTable.pop(); // 清空当前作用域符号表
-        stringBuilder.append("\tj .beforeLoop").append(currentLoop).append("\n")
-                .append(".afterLoop").append(currentLoop).append(":\n");
+        valueTable.clear();
+        if (post != null)
+            visitDiscarded(post);
+        if (alwaysTrue)
+            stringBuilder.append("\tj .beforeLoop").append(currentLoop).append("\n");
+        else
+            branch(ctrl, true, ".beforeLoop" + currentLoop, ctx);
+        dropInvariants(invariants);
+        if (rarelyEntered)
+            moveToCold(loopStart, ".loop" + currentLoop, ".afterLoop" + currentLoop);
+        exitScope(); // 清空当前作用域符号表
+        stringBuilder.append(".afterLoop").append(currentLoop).append(":\n");
+        valueTable.clear();
         return new Type.NoType();
     }
 
+    /**
+     * 展开计数循环。循环体规模不超过上限时完全展开；否则按展开倍数部分展开，
+     * 由于迭代次数已知，余下不足一轮的迭代直接展开在循环之后，不再需要余数循环。
+     *
+     * @return 是否进行了展开，未展开时不生成任何代码
+     */
+    private boolean unrollForStatement(MiniDecafParser.ForStatementContext ctx, CountedLoop loop,
+                                       MiniDecafParser.ExpressionContext init, MiniDecafParser.ExpressionContext ctrl,
+                                       MiniDecafParser.ExpressionContext post) {
+        int tripCount = loop.tripCount;
+        if (tripCount == 0 || escapeAnalysis.isAddressTaken(currentFunction, loop.variable))
+            return false;
+        // 初始化部分不是声明时，循环变量必须是局部整型变量，否则循环体中的函数调用可能修改它
+        if (ctx.declaration() == null) {
+            Optional<Symbol> symbol = lookupSymbol(loop.variable);
+            if (symbol.isEmpty() || !(symbol.get().type instanceof Type.IntType))
+                return false;
+        }
+        var body = ctx.statement();
+        // 有剖析数据时，热点循环的展开规模上限放大，从未执行过的循环不展开
+        int limit = options.unrollLimit;
+        long iterations = profileCount(body);
+        if (iterations == 0)
+            return false;
+        if (profile != null && profile.isHot(iterations))
+            limit *= HOT_UNROLL_SCALE;
+        int bodySize = body.getStop().getTokenIndex() - body.getStart().getTokenIndex() + 1;
+        int factor; // 每轮循环中循环体的副本数
+        if ((long) tripCount * bodySize <= limit)
+            factor = tripCount;
+        else {
+            factor = Math.min(options.unrollFactor, tripCount);
+            while (factor > 1 && (long) (factor + tripCount % factor) * bodySize > limit)
+                factor--;
+            if (factor < 2)
+                return false;
+        }
+        int rounds = tripCount / factor;
+        int remainder = tripCount % factor;
+        if (rounds == 1) { // 只有一轮时与完全展开相同
+            factor = tripCount;
+            remainder = 0;
+        }
+        int end = loop.start + rounds * factor * loop.step; // 所有整轮迭代结束后循环变量的值
+
+        enterScope();
+        if (ctx.declaration() != null)
+            visit(ctx.declaration());
+        else
+            visitDiscarded(init);
+        // 展开后不再需要条件和更新部分的代码，但仍要对它们做语义检查
+        visitChecked(() -> branch(ctrl, false, ".afterLoop", ctx));
+        visitChecked(() -> visitDiscarded(post));
+        countBlock(ctx);
+        Symbol variable = lookupSymbol(loop.variable).orElseThrow();
+        if (rounds == 1) { // 完全展开，每个副本之前直接给循环变量赋常量
+            for (int i = 0; i < factor; ++i) {
+                if (i > 0)
+                    storeConstant(variable, loop.start + i * loop.step);
+                visitUnrolledBody(body);
+            }
+        } else {
+            int currentLoop = loopCount++;
+            var invariants = hoistInvariants(ctx, body);
+            stringBuilder.append(".beforeLoop").append(currentLoop).append(":\n");
+            valueTable.clear();
+            for (int i = 0; i < factor; ++i) {
+                visitUnrolledBody(body);
+                addConstant(variable, loop.step);
+            }
+            String counter = variable.register != null ? variable.register : "t1";
+            if (variable.register == null)
+                loadVariable(variable, counter);
+            stringBuilder.append("\tli t0, ").append(end).append("\n")
+                    .append("\tbne ").append(counter).append(", t0, .beforeLoop").append(currentLoop).append("\n");
+            dropInvariants(invariants);
+        }
+        for (int i = 0; i < remainder; ++i) {
+            if (i > 0)
+                storeConstant(variable, end + i * loop.step);
+            visitUnrolledBody(body);
+        }
+        // 循环变量在循环之后仍然可见时，需要给出它的终值
+        if (ctx.declaration() == null)
+            storeConstant(variable, loop.start + tripCount * loop.step);
+        exitScope();
+        return true;
+    }
+
+    private void visitUnrolledBody(MiniDecafParser.StatementContext body) {
+        enterScope();
+        countBlock(body);
+        visit(body);
+        exitScope();
+    }
+
     @Override
     public Type visitWhileStatement(MiniDecafParser.WhileStatementContext ctx) {
         int currentLoop = loopCount++;
-        stringBuilder.append(".beforeLoop").append(currentLoop).append(":\n").
-                append(".continueLoop").append(currentLoop).append(":\n"); // continue 指令需要跳转到这里
-        typeCheck(visit(ctx.expression()), Type.IntType.class, ctx);
-        stackPop("t0");
-        stringBuilder.append("\tbeqz t0, .afterLoop").append(currentLoop).append("\n");
+        // 循环条件放在循环体之后，每次迭代只执行一次条件跳转；进入循环之前先检查一次条件，条件恒真时不必检查
+        Integer condition = ConstantEvaluator.evaluate(ctx.expression());
+        boolean alwaysTrue = condition != null && condition != 0;
+        // 通常一次也不迭代的循环整个移到函数末尾，进入循环之前的检查在条件成立时跳转
+        boolean rarelyEntered = !alwaysTrue && isRarelyEntered(ctx, ctx.statement());
+        countBlock(ctx);
+        if (!alwaysTrue)
+            branch(ctx.expression(), rarelyEntered, (rarelyEntered ? ".loop" : ".afterLoop") + currentLoop, ctx);
+        else // 恒真的条件不生成代码，但仍要做语义检查
+            visitChecked(() -> branch(ctx.expression(), false, ".afterLoop" + currentLoop, ctx));
+        int loopStart = stringBuilder.length();
+        var invariants = hoistInvariants(ctx, ctx.expression(), ctx.statement());
+        stringBuilder.append(".beforeLoop").append(currentLoop).append(":\n");
+        valueTable.clear(); // 循环头有来自循环体的回边，之前求出的值不一定仍然可用
         this.currentLoop.push(currentLoop);
+        currentBreak.push(currentLoop);
+        countBlock(ctx.statement());
         visit(ctx.statement()); // 访问循环体
         this.currentLoop.pop();
-        stringBuilder.append("\tj .beforeLoop").append(currentLoop).append("\n").
-                append(".afterLoop").append(currentLoop).append(":\n");
+        currentBreak.pop();
+        stringBuilder.append(".continueLoop").append(currentLoop).append(":\n"); // continue 指令需要跳转到这里
+        valueTable.clear();
+        if (alwaysTrue)
+            stringBuilder.append("\tj .beforeLoop").append(currentLoop).append("\n");
+        else
+            branch(ctx.expression(), true, ".beforeLoop" + currentLoop, ctx);
+        dropInvariants(invariants);
+        if (rarelyEntered)
+            moveToCold(loopStart, ".loop" + currentLoop, ".afterLoop" + currentLoop);
+        stringBuilder.append(".afterLoop").append(currentLoop).append(":\n");
+        valueTable.clear();
         return new Type.NoType();
     }
 
+    /**
+     * 根据剖析数据判断循环是否通常一次也不迭代。进入循环 entries 次、共迭代 iterations 次时，至少有
+     * entries - iterations 次一次也不迭代；把循环移到函数末尾后，一次也不迭代时省去一次跳转，
+     * 真正进入循环时多出两次跳转，因此 3 * iterations < entries 时一定更划算。
+     */
+    private boolean isRarelyEntered(ParserRuleContext loop, MiniDecafParser.StatementContext body) {
+        if (options.instrumentFile != null)
+            return false;
+        long entries = profileCount(loop);
+        long iterations = profileCount(body);
+        return entries > 0 && iterations >= 0 && 3 * iterations < entries;
+    }
+
+    /**
+     * 循环不变量外提：在循环的前置块中求出循环中不变的地址计算、整数运算和循环中不被写入的变量的值，
+     * 放在被调用者保存寄存器中，循环中用到它们时直接使用寄存器。前置块位于进入循环的检查之后、循环头之前，
+     * 只在确定进入循环时执行。外提的表达式不读取数组元素和指针指向的内存，提前求值不会出错。
+     * <p>
+     * 只外提不变的最大子表达式，规模（词法单元数）大的优先；寄存器要留给循环中的声明和内联展开的参数。
+     *
+     * @param loop  循环语句，从中收集循环中的写入
+     * @param parts 循环中反复执行的部分，可以为 null
+     * @return 外提的循环不变量，离开循环时交给 {@link #dropInvariants}
+     */
+    private List<ValueTable.Value> hoistInvariants(ParserRuleContext loop, ParseTree... parts) {
+        List<ValueTable.Value> hoisted = new ArrayList<>();
+        if (!options.licm)
+            return hoisted;
+        LoopSummary summary = LoopSummary.of(loop);
+        Set<String> killed = new HashSet<>(); // 循环中被写入的寄存器变量和变量地址
+        boolean clobbered = summary.indirectStores || summary.calls; // 循环中是否可能写入任何变量
+        for (String name : summary.writtenNames) {
+            Optional<Symbol> symbol = lookupSymbol(name);
+            if (symbol.isPresent())
+                killed.add(symbol.get().register != null ? symbol.get().register : "&fp" + symbol.get().offset);
+            else
+                killed.add("&" + name);
+        }
+        // 写入整数数组的元素不影响变量；下标个数超过数组的维数时是通过数组中的指针写入，与其它指针写入一样可能写入任何变量
+        for (var entry : summary.subscriptStores.entrySet()) {
+            String name = entry.getKey();
+            Optional<Symbol> symbol = lookupSymbol(name);
+            Type type = symbol.isPresent() ? symbol.get().type : declaredGlobalTable.get(name);
+            int dimensions = 0;
+            for (; type instanceof Type.ArrayType; type = ((Type.ArrayType) type).baseType)
+                dimensions++;
+            if (type instanceof Type.PointerType)
+                dimensions = 0;
+            if (type == null) // 只在循环中声明的数组
+                dimensions = summary.declaredArrays.getOrDefault(name, 0);
+            else if (summary.declaredArrays.containsKey(name))
+                dimensions = Math.min(dimensions, summary.declaredArrays.get(name));
+            if (entry.getValue() > dimensions || summary.declaredScalars.contains(name))
+                clobbered = true;
+        }
+        Map<String, ParseTree> candidates = new LinkedHashMap<>();
+        Map<String, ValueTable.Value> values = new HashMap<>();
+        for (ParseTree part : parts)
+            if (part != null)
+                collectInvariants(part, summary, killed, clobbered, candidates, values);
+        List<String> keys = new ArrayList<>(candidates.keySet());
+        keys.sort(Comparator.comparing(key -> -tokenCount(candidates.get(key))));
+        int budget = SAVED_REGISTER_NUM - registerCount - summary.registerDemand;
+        for (int i = 0; i < keys.size() && i < budget; ++i) {
+            ParseTree tree = candidates.get(keys.get(i));
+            ValueTable.Value value = values.get(keys.get(i));
+            String register = allocateRegister();
+            Type type = visit(tree);
+            if (isInvariantValue(tree))
+                castToRValue(type, (ParserRuleContext) tree);
+            stackPop(register);
+            lastLValue = null;
+            valueTable.pin(value, register);
+            hoisted.add(value);
+        }
+        return hoisted;
+    }
+
+    /**
+     * 离开循环，它的循环不变量所占的寄存器随之释放。
+     */
+    private void dropInvariants(List<ValueTable.Value> hoisted) {
+        for (ValueTable.Value value : hoisted)
+            valueTable.unpin(value);
+        registerCount -= hoisted.size();
+    }
+
+    /**
+     * 在分析树中自顶向下寻找循环不变的表达式，找到后不再深入它的子树。
+     */
+    private void collectInvariants(ParseTree tree, LoopSummary summary, Set<String> killed, boolean clobbered,
+                                   Map<String, ParseTree> candidates, Map<String, ValueTable.Value> values) {
+        ValueTable.Value value = invariantCandidate(tree);
+        if (value != null && !mentions(tree, summary.declaredNames) && isInvariant(value, killed, clobbered)) {
+            if (valueTable.invariant(value.key) == null && !candidates.containsKey(value.key)) {
+                candidates.put(value.key, tree);
+                values.put(value.key, value);
+            }
+            return;
+        }
+        for (int i = 0; i < tree.getChildCount(); ++i)
+            collectInvariants(tree.getChild(i), summary, killed, clobbered, candidates, values);
+    }
+
+    /**
+     * 可以外提的表达式的值编号：下标运算所得的地址、数组和变量的地址、被读取的变量的值，以及整数的加减乘除。
+     * 已经在寄存器中的变量和地址、只读的全局变量不需要外提，返回 null。
+     */
+    private ValueTable.Value invariantCandidate(ParseTree tree) {
+        if (tree instanceof MiniDecafParser.ArrayPostfixContext)
+            return addressNumber((MiniDecafParser.ArrayPostfixContext) tree);
+        if (isInvariantValue(tree))
+            return valueNumber(tree);
+        if (!(tree instanceof MiniDecafParser.IdentPrimaryContext))
+            return null;
+        String name = tree.getText();
+        Optional<Symbol> symbol = lookupSymbol(name);
+        if (symbol.isPresent() ? symbol.get().register != null || !symbol.get().live
+                : declaredGlobalTable.get(name) == null || globalAddressRegisters.containsKey(name)
+                || globalAnalysis.constantValue(name) != null)
+            return null;
+        return identNumber(name);
+    }
+
+    /**
+     * 外提的是否是表达式的值（而不是地址）：整数运算，以及被读取的标量变量。
+     */
+    private boolean isInvariantValue(ParseTree tree) {
+        if (tree instanceof MiniDecafParser.AdditiveContext || tree instanceof MiniDecafParser.MultiplicativeContext)
+            return tree.getChildCount() == 3;
+        if (!(tree instanceof MiniDecafParser.IdentPrimaryContext))
+            return false;
+        String name = tree.getText();
+        Optional<Symbol> symbol = lookupSymbol(name);
+        Type type = symbol.isPresent() ? symbol.get().type : declaredGlobalTable.get(name);
+        if (type == null || type instanceof Type.ArrayType || (symbol.isPresent() && symbol.get().register != null)
+                || globalAnalysis.constantValue(name) != null && symbol.isEmpty())
+            return false;
+        // 向上穿过只有一个子结点的结点、括号和类型转换，看变量是否是赋值的左侧或取地址的操作数
+        ParseTree child = tree, parent = tree.getParent();
+        while (parent.getChildCount() == 1 || parent instanceof MiniDecafParser.ParenthesizedPrimaryContext
+                || parent instanceof MiniDecafParser.CastUnaryContext) {
+            child = parent;
+            parent = parent.getParent();
+        }
+        if (parent instanceof MiniDecafParser.AssignmentContext)
+            return ((MiniDecafParser.AssignmentContext) parent).unary() != child;
+        return !(parent instanceof MiniDecafParser.OperatorUnaryContext && parent.getChild(0).getText().equals("&"));
+    }
+
+    /**
+     * 值在循环中是否不变：它依赖的寄存器变量和读取的变量在循环中都不被写入，并且它不读取数组元素和指针指向的内存。
+     */
+    private static boolean isInvariant(ValueTable.Value value, Set<String> killed, boolean clobbered) {
+        for (String dependency : value.dependencies) {
+            if (dependency.equals("&fp") || dependency.startsWith("mem"))
+                continue;
+            if (dependency.startsWith("*") || dependency.contains("[")) // 读取了数组元素或指针指向的内存
+                return false;
+            if (killed.contains(dependency) || dependency.startsWith("&") && clobbered)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * 分析树中是否用到了某些名字。
+     */
+    private static boolean mentions(ParseTree tree, Set<String> names) {
+        if (tree instanceof MiniDecafParser.IdentPrimaryContext)
+            return names.contains(tree.getText());
+        for (int i = 0; i < tree.getChildCount(); ++i)
+            if (mentions(tree.getChild(i), names))
+                return true;
+        return false;
+    }
+
+    private static int tokenCount(ParseTree tree) {
+        var ctx = (ParserRuleContext) tree;
+        return ctx.getStop().getTokenIndex() - ctx.getStart().getTokenIndex() + 1;
+    }
+
     @Override
     public Type visitDoWhileStatement(MiniDecafParser.DoWhileStatementContext ctx) {
         int currentLoop = loopCount++;
+        countBlock(ctx);
+        var invariants = hoistInvariants(ctx, ctx.statement(), ctx.expression());
         stringBuilder.append(".beforeLoop").append(currentLoop).append(":\n");
+        valueTable.clear();
         this.currentLoop.push(currentLoop);
+        currentBreak.push(currentLoop);
+        countBlock(ctx.statement());
         visit(ctx.statement()); // 访问循环体
         this.currentLoop.pop();
+        currentBreak.pop();
         stringBuilder.append(".continueLoop").append(currentLoop).append(":\n"); // continue 指令需要跳转到这里
+        valueTable.clear();
+        branch(ctx.expression(), true, ".beforeLoop" + currentLoop, ctx);
+        dropInvariants(invariants);
+        stringBuilder.append(".afterLoop").append(currentLoop).append(":\n");
+        valueTable.clear();
+        return new Type.NoType();
+    }
+
+    @Override
+    public Type visitSwitchStatement(MiniDecafParser.SwitchStatementContext ctx) {
+        int currentSwitch = loopCount++; // break 跳转到 .afterLoop 标签，与循环共用编号
         typeCheck(visit(ctx.expression()), Type.IntType.class, ctx);
+        // 每个 case（包括 default）开头有一个标签，没有 default 时不匹配任何 case 的值直接跳出 switch 语句
+        var sections = ctx.switch_case();
+        TreeMap<Integer, String> cases = new TreeMap<>(); // case 的值 -> 标签
+        String defaultLabel = null;
+        for (int i = 0; i < sections.size(); ++i) {
+            var section = sections.get(i);
+            String label = ".case" + currentSwitch + "_" + i;
+            if (section.NUM() == null) {
+                if (defaultLabel != null)
+                    reportError("multiple default labels in one switch", section);
+                defaultLabel = label;
+                continue;
+            }
+            BigInteger value = new BigInteger(section.NUM().getText());
+            if (section.getChild(1).getText().equals("-"))
+                value = value.negate();
+            if (value.bitLength() > 31) // 超出 int 的范围
+                reportError("too large number", section);
+            if (cases.put(value.intValue(), label) != null)
+                reportError("duplicate case value", section);
+        }
+        if (defaultLabel == null)
+            defaultLabel = ".afterLoop" + currentSwitch;
         stackPop("t0");
-        stringBuilder.append("\tbnez t0, .beforeLoop").append(currentLoop).append("\n").
-                append(".afterLoop").append(currentLoop).append(":\n");
+        List<Map.Entry<Integer, String>> entries = new ArrayList<>(cases.entrySet());
+        long range = entries.isEmpty() ? 0 : (long) cases.lastKey() - cases.firstKey() + 1;
+        if (entries.size() >= JUMP_TABLE_MIN_CASES && range <= 2L * entries.size())
+            jumpTable(currentSwitch, cases, range, defaultLabel);
+        else
+            compareTree(currentSwitch, entries, 0, entries.size() - 1, defaultLabel);
+        // 各个 case 依次排列，没有 break 时顺序执行到下一个 case；每个 case 的开头都是汇合处
+        currentBreak.push(currentSwitch);
+        enterScope();
+        for (int i = 0; i < sections.size(); ++i) {
+            stringBuilder.append(".case").append(currentSwitch).append("_").append(i).append(":\n");
+            valueTable.clear();
+            countBlock(sections.get(i));
+            visitBlockItems(sections.get(i).blockitem());
+        }
+        exitScope();
+        currentBreak.pop();
+        stringBuilder.append(".afterLoop").append(currentSwitch).append(":\n");
+        valueTable.clear();
         return new Type.NoType();
     }
 
+    /**
+     * 稠密的 case 值用跳转表分派：t0 减去最小值后作为无符号数检查是否在范围内，再从只读数据段的表中取出目标地址。
+     * 表中没有对应 case 的位置跳到 default。
+     */
+    private void jumpTable(int currentSwitch, TreeMap<Integer, String> cases, long range, String defaultLabel) {
+        long min = cases.firstKey();
+        if (-min >= -2048 && -min < 2048) {
+            if (min != 0)
+                stringBuilder.append("\taddi t0, t0, ").append(-min).append("\n");
+        } else
+            stringBuilder.append("\tli t1, ").append(min).append("\n").append("\tsub t0, t0, t1\n");
+        stringBuilder.append("\tli t1, ").append(range).append("\n")
+                .append("\tbgeu t0, t1, ").append(defaultLabel).append("\n")
+                .append("\tslli t0, t0, 2\n")
+                .append("\tlui t1, %hi(.switch").append(currentSwitch).append(")\n")
+                .append("\taddi t1, t1, %lo(.switch").append(currentSwitch).append(")\n")
+                .append("\tadd t0, t0, t1\n")
+                .append("\tlw t0, 0(t0)\n")
+                .append("\tjr t0\n");
+        stringBuilder.append("\t.section .rodata\n\t.align 2\n.switch").append(currentSwitch).append(":\n");
+        for (long value = min; value < min + range; ++value)
+            stringBuilder.append("\t.word ").append(cases.getOrDefault((int) value, defaultLabel)).append("\n");
+        stringBuilder.append("\t.text\n");
+    }
+
+    /**
+     * 稀疏的 case 值用平衡的比较树分派：与中间的值比较，相等时跳到对应的 case，否则在较小或较大的一半中继续查找。
+     * 剩下的值不多时逐个比较，都不相等时跳到 default。
+     */
+    private void compareTree(int currentSwitch, List<Map.Entry<Integer, String>> cases, int low, int high,
+                             String defaultLabel) {
+        if (high - low < 3) {
+            for (int i = low; i <= high; ++i)
+                stringBuilder.append("\tli t1, ").append(cases.get(i).getKey()).append("\n")
+                        .append("\tbeq t0, t1, ").append(cases.get(i).getValue()).append("\n");
+            stringBuilder.append("\tj ").append(defaultLabel).append("\n");
+            return;
+        }
+        int middle = (low + high) >>> 1;
+        String less = ".less" + currentSwitch + "_" + middle;
+        stringBuilder.append("\tli t1, ").append(cases.get(middle).getKey()).append("\n")
+                .append("\tbeq t0, t1, ").append(cases.get(middle).getValue()).append("\n")
+                .append("\tblt t0, t1, ").append(less).append("\n");
+        compareTree(currentSwitch, cases, middle + 1, high, defaultLabel);
+        stringBuilder.append(less).append(":\n");
+        compareTree(currentSwitch, cases, low, middle - 1, defaultLabel);
+    }
+
     @Override
     public Type visitBreakStatement(MiniDecafParser.BreakStatementContext ctx) {
-        if (currentLoop.isEmpty())
-            reportError("break statement not within loop", ctx);
-        stringBuilder.append("\tj .afterLoop").append(currentLoop.peek()).append("\n");
+        if (currentBreak.isEmpty())
+            reportError("break statement not within loop or switch", ctx);
+        stringBuilder.append("\tj .afterLoop").append(currentBreak.peek()).append("\n");
         return new Type.NoType();
     }
 
@@ -350,13 +1000,29 @@ public final class MainVisitor extends MiniDecafBaseVisitor<Type> {
     public Type visitAssignment(MiniDecafParser.AssignmentContext ctx) {
         if (ctx.children.size() > 1) {
             Type unaryType = typeCheck(visit(ctx.unary()), Type.class, ValueKind.LVALUE, ctx);
+            String register = registerLValue;
+            registerLValue = null;
+            ValueTable.Value target = lastLValue;
             Type exprType = castToRValue(visit(ctx.expression()), ctx);
             if (!exprType.equals(unaryType.valueCast(ValueKind.RVALUE)))
                 reportError("assign value of type " + exprType + " to some variable of type " + unaryType, ctx);
+            if (register != null) { // 寄存器变量直接写入寄存器，赋值表达式的结果仍是该寄存器变量
+                stackPop(register);
+                valueTable.kill(register);
+                registerLValue = register;
+                return unaryType;
+            }
             stackPop("t1");
             stackPop("t0");
             stringBuilder.append("\tsw t1, 0(t0)\n");
+            valueTable.kill(memoryClass(unaryType));
+            if (target != null) { // 写入的值就是之后从同一地址读出的值
+                valueTable.kill(target.key);
+                valueTable.add(loadedValue(target, unaryType), stringBuilder.length(), "t1");
+            }
             stackPush("t0");
+            lastLValue = target;
+            lastLValueStart = -1;
             return unaryType;
 //            String name = ctx.IDENT().getText();
 //            Optional<Symbol> optionSymbol = lookupSymbol(name);
@@ -386,22 +1052,65 @@ public final class MainVisitor extends MiniDecafBaseVisitor<Type> {
     public Type visitConditional(MiniDecafParser.ConditionalContext ctx) {
         if (ctx.children.size() > 1) {
             int currentCondNo = condCount++;
-            typeCheck(visit(ctx.logical_or()), Type.IntType.class, ctx);
-            stackPop("t0");
-            stringBuilder.append("\tbeqz t0, .else").append(currentCondNo).append("\n"); // 根据条件表达式判断是否要跳转至 else 分支
-            Type thenType = castToRValue(visit(ctx.expression()), ctx);
-            stringBuilder.append("\tj .afterCondition").append(currentCondNo).append("\n"); // 在 then 分支结束后直接跳至分支语句末尾
-            stringBuilder.append(".else").append(currentCondNo).append(":\n"); // 在 else 分支结束后直接跳至分支语句末尾
-            Type elseType = castToRValue(visit(ctx.conditional()), ctx);
-            stringBuilder.append(".afterCondition").append(currentCondNo).append(":\n");
-            if (!thenType.equals(elseType))
+            // 有剖析数据且 else 分支更常取到时，让 else 分支顺序执行下去
+            long thenCount = profileCount(ctx.expression());
+            long elseCount = profileCount(ctx.conditional());
+            boolean elseLikely = thenCount >= 0 && elseCount > thenCount;
+            ParserRuleContext likely = elseLikely ? ctx.conditional() : ctx.expression();
+            ParserRuleContext unlikely = elseLikely ? ctx.expression() : ctx.conditional();
+            Type likelyType, unlikelyType;
+            // 两个分支都是常量或变量、条件没有副作用时，先把较少取到的分支的值放在栈顶，需要时再用另一个分支的值覆盖，
+            // 这样只需要一次条件跳转。插桩时每个分支都要计数，不这样生成
+            if (isSimpleOperand(ctx.expression()) && isSimpleOperand(ctx.conditional())
+                    && !DeadCodeAnalysis.hasSideEffect(ctx.logical_or()) && options.instrumentFile == null) {
+                unlikelyType = castToRValue(visit(unlikely), ctx);
+                branch(ctx.logical_or(), elseLikely, ".afterCondition" + currentCondNo, ctx);
+                var dominator = valueTable.save();
+                likelyType = castToRValue(visit(likely), ctx);
+                stackPop("t0");
+                stringBuilder.append("\tsw t0, 0(sp)\n");
+                stringBuilder.append(".afterCondition").append(currentCondNo).append(":\n");
+                valueTable.restore(ValueTable.merge(dominator, valueTable.save()));
+            } else {
+                String unlikelyLabel = (elseLikely ? ".then" : ".else") + currentCondNo;
+                branch(ctx.logical_or(), elseLikely, unlikelyLabel, ctx); // 根据条件表达式判断是否要跳转至较少取到的分支
+                var dominator = valueTable.save();
+                countBlock(likely);
+                likelyType = castToRValue(visit(likely), ctx);
+                var likelyValues = valueTable.save();
+                stringBuilder.append("\tj .afterCondition").append(currentCondNo).append("\n"); // 在一个分支结束后直接跳至分支语句末尾
+                stringBuilder.append(unlikelyLabel).append(":\n");
+                valueTable.restore(dominator);
+                countBlock(unlikely);
+                unlikelyType = castToRValue(visit(unlikely), ctx);
+                stringBuilder.append(".afterCondition").append(currentCondNo).append(":\n");
+                valueTable.restore(ValueTable.merge(likelyValues, valueTable.save()));
+            }
+            if (!likelyType.equals(unlikelyType))
                 reportError("different types of branches of a ternary", ctx);
-            return thenType;
+            return likelyType;
         } else {
             return visit(ctx.logical_or());
         }
     }
 
+    /**
+     * 判断表达式是否只是一个整数常量或标量变量，对它求值没有副作用，也不会访问非法地址。
+     */
+    private boolean isSimpleOperand(ParseTree tree) {
+        while (tree.getChildCount() == 1 && !(tree.getChild(0) instanceof TerminalNode))
+            tree = tree.getChild(0);
+        if (tree instanceof MiniDecafParser.NumberPrimaryContext)
+            return true;
+        if (tree instanceof MiniDecafParser.IdentPrimaryContext) {
+            String name = tree.getText();
+            Optional<Symbol> symbol = lookupSymbol(name);
+            Type type = symbol.isPresent() ? symbol.get().type : declaredGlobalTable.get(name);
+            return type != null && !(type instanceof Type.ArrayType);
+        }
+        return false;
+    }
+
     @Override
     public Type visitLogical_or(MiniDecafParser.Logical_orContext ctx) {
         if (ctx.children.size() > 1) {
@@ -479,6 +1188,8 @@ public final class MainVisitor extends MiniDecafBaseVisitor<Type> {
     @Override
     public Type visitAdditive(MiniDecafParser.AdditiveContext ctx) {
         if (ctx.children.size() > 1) {
+            if (pushInvariant(ctx))
+                return new Type.IntType();
             Type leftType = castToRValue(visit(ctx.additive()), ctx);
             Type rightType = castToRValue(visit(ctx.multiplicative()), ctx);
             // 将加法和减法的操作数存入寄存器
@@ -534,6 +1245,8 @@ public final class MainVisitor extends MiniDecafBaseVisitor<Type> {
     public Type visitMultiplicative(MiniDecafParser.MultiplicativeContext ctx) {
         // 与加减操作基本相同
         if (ctx.children.size() > 1) {
+            if (pushInvariant(ctx))
+                return new Type.IntType();
             typeCheck(visit(ctx.multiplicative()), Type.IntType.class, ctx);
             typeCheck(visit(ctx.unary()), Type.IntType.class, ctx);
             stackPop("t1");
@@ -550,12 +1263,28 @@ public final class MainVisitor extends MiniDecafBaseVisitor<Type> {
         }
     }
 
+    /**
+     * 整数运算是外提到循环之外的循环不变量时，直接压入它所在的寄存器。
+     */
+    private boolean pushInvariant(ParserRuleContext ctx) {
+        if (!valueTable.hasInvariants())
+            return false;
+        ValueTable.Value value = valueNumber(ctx);
+        ValueTable.Value invariant = value == null ? null : valueTable.invariant(value.key);
+        if (invariant == null)
+            return false;
+        stackPush(invariant.register);
+        return true;
+    }
+
     @Override
     public Type visitOperatorUnary(MiniDecafParser.OperatorUnaryContext ctx) {
         Type type = visit(ctx.unary()); //递归循环
         String op = ctx.children.get(0).getText();
         if (op.equals("*")) {
-            return castToRValue(type, ctx).dereferenced();
+            Type result = castToRValue(type, ctx).dereferenced();
+            lastLValue = null;
+            return result;
         }
         if (op.equals("&")) {
             return type.referenced();
@@ -592,18 +1321,120 @@ public final class MainVisitor extends MiniDecafBaseVisitor<Type> {
         FunctionType functionType = declaredFunctionTable.get(functionName);
         if (functionType.parameterTypes.size() != ctx.expression().size())
             reportError("parameters matching error", ctx);
-        // 这里参数的调用方式遵循 riscv gcc 的调用约定
-        for (int i = ctx.expression().size() - 1; i >= 0; i--) {
+        // 实参都是常量的纯函数调用在编译期求值。实参仍要做语义检查，但不保留它们的代码
+        Integer value = pureFunctionEvaluator.evaluateCall(ctx);
+        if (value != null) {
+            int position = stringBuilder.length();
+            var values = valueTable.save();
+            valueTable.clear(); // 要删除的代码不能复用（从而改动）之前的代码
+            for (int i = 0; i < ctx.expression().size(); ++i)
+                if (!castToRValue(visit(ctx.expression(i)), ctx).equals(functionType.parameterTypes.get(i)))
+                    reportError("the type of argument " + i + " is different from the type of parameter " + i + " of function " + functionName, ctx);
+            discardCode(position);
+            valueTable.restore(values);
+            stringBuilder.append("\tli t0, ").append(value).append("\n");
+            stackPush("t0");
+            return functionType.returnType;
+        }
+        // 这里参数的调用方式遵循 riscv gcc 的调用约定，前8个参数使用寄存器 a0-a7 传递，其余直接存在内存中
+        // 参数从后往前求值。若一个参数之后求值的参数中都没有函数调用，它求值后可以直接放入参数寄存器；
+        // 否则它会被之后的函数调用覆盖，只能先留在栈上，待所有参数求值完毕后再弹出
+        int argumentNum = ctx.expression().size();
+        int firstCall = argumentNum; // 含有函数调用的参数中下标最小的一个
+        for (int i = 0; i < argumentNum; ++i)
+            if (EscapeAnalysis.containsCall(ctx.expression(i))) {
+                firstCall = i;
+                break;
+            }
+        // 生成压缩指令时临时寄存器 t0、t1 改用 a5、a4（见 Compressor），它们同样要等所有参数求值完毕后再弹出
+        countBlock(ctx);
+        for (int i = argumentNum - 1; i >= 0; i--) {
             Type type = castToRValue(visit(ctx.expression().get(i)), ctx);
             if (!type.equals(functionType.parameterTypes.get(i)))
                 reportError("the type of argument " + i + " is different from the type of parameter " + i + " of function " + functionName, ctx);
-            if (i < 8) stackPop("a" + i); // 前8个参数使用寄存器 a0-a7 传递，其余直接存在内存中
+            if (i < 8 && i <= firstCall && !isScratchArgument(i)) stackPop("a" + i);
         }
+        for (int i = 0; i < Math.min(argumentNum, 8); ++i)
+            if (i > firstCall || isScratchArgument(i))
+                stackPop("a" + i);
+        if (shouldInline(ctx, functionName))
+            return visitInlined(functionDefinitions.get(functionName), functionType);
         stringBuilder.append("\tcall ").append(functionName).append("\n"); // 调用函数
+        if (argumentNum > 8) // 弹出通过栈传递的参数
+            stringBuilder.append("\taddi sp, sp, ").append(4 * (argumentNum - 8)).append("\n");
+        valueTable.clear(); // 被调用的函数会改写临时寄存器，也可能改写任意内存
         stackPush("a0"); // 函数的返回值存储在a0中
         return functionType.returnType;
     }
 
+    /**
+     * 第 i 个实参所在的寄存器是否会在之后的求值中被用作临时寄存器。
+     */
+    private boolean isScratchArgument(int i) {
+        return options.compress && (i == 4 || i == 5);
+    }
+
+    /**
+     * 根据剖析数据判断是否内联展开调用点：调用点是热点，被调用的函数已经定义、参数都通过寄存器传递、
+     * 规模不超过上限，并且其中没有函数调用（因此不会递归）。
+     */
+    private boolean shouldInline(MiniDecafParser.FunctionPostfixContext ctx, String functionName) {
+        if (profile == null || !profile.isHot(profileCount(ctx)))
+            return false;
+        var definition = functionDefinitions.get(functionName);
+        if (definition == null || ctx.expression().size() > 8)
+            return false;
+        var body = definition.compound_statement();
+        int bodySize = body.getStop().getTokenIndex() - body.getStart().getTokenIndex() + 1;
+        return bodySize <= INLINE_LIMIT && !EscapeAnalysis.containsCall(body);
+    }
+
+    /**
+     * 在调用点内联展开函数，此时实参已经在 a0-a7 中。形参和局部变量占用调用者栈帧中的寄存器和栈槽，
+     * 返回语句把返回值压栈后跳到展开的代码之后，与函数调用的结果一样留在栈顶。
+     */
+    private Type visitInlined(MiniDecafParser.DefineFunctionContext definition, FunctionType functionType) {
+        String savedFunction = currentFunction;
+        String savedExitLabel = exitLabel;
+        int savedScopeBase = scopeBase;
+        currentFunction = definition.IDENT(0).getText();
+        exitLabel = ".inline" + inlineCount++;
+        scopeBase = symbolTable.size();
+        enterScope();
+        for (int i = 1; i < definition.IDENT().size(); ++i) {
+            String parameterName = definition.IDENT(i).getText();
+            Type parameterType = functionType.parameterTypes.get(i - 1).valueCast(ValueKind.LVALUE);
+            String register = escapeAnalysis.isAddressTaken(currentFunction, parameterName) ? null : allocateRegister();
+            Symbol symbol;
+            if (register != null) {
+                stringBuilder.append("\tmv ").append(register).append(", a").append(i - 1).append("\n");
+                symbol = new Symbol(parameterName, register, parameterType);
+            } else {
+                int offset = allocateLocal(1);
+                stringBuilder.append("\tsw a").append(i - 1).append(", ").append(offset).append("(fp)\n");
+                symbol = new Symbol(parameterName, offset, parameterType);
+            }
+            killVariable(symbol);
+            symbolTable.peek().put(parameterName, symbol);
+        }
+        countBlock(definition);
+        visit(definition.compound_statement());
+        exitScope();
+        if (!DeadCodeAnalysis.alwaysTransfers(definition.compound_statement()))
+            stringBuilder.append("\tli t1, 0\n").append("\taddi sp, sp, -4\n").append("\tsw t1, 0(sp)\n");
+        String jump = "\tj " + exitLabel + "\n"; // 函数体末尾的返回语句直接落到返回标签，不需要跳转
+        if (stringBuilder.length() >= jump.length()
+                && stringBuilder.substring(stringBuilder.length() - jump.length()).equals(jump))
+            stringBuilder.setLength(stringBuilder.length() - jump.length());
+        stringBuilder.append(exitLabel).append(":\n");
+        lastPushEnd = -1;
+        valueTable.clear(); // 各个返回语句在这里汇合
+        currentFunction = savedFunction;
+        exitLabel = savedExitLabel;
+        scopeBase = savedScopeBase;
+        return functionType.returnType;
+    }
+
     @Override
     public Type visitPrimaryPostfix(MiniDecafParser.PrimaryPostfixContext ctx) {
         return visit(ctx.primary());
@@ -611,6 +1442,16 @@ public final class MainVisitor extends MiniDecafBaseVisitor<Type> {
 
     @Override
     public Type visitArrayPostfix(MiniDecafParser.ArrayPostfixContext ctx) {
+        int start = stringBuilder.length();
+        ValueTable.Value address = addressNumber(ctx);
+        ValueTable.Value available = address == null ? null : valueTable.lookup(address.key);
+        if (available != null) { // 同样的地址已经算过
+            materialize(available);
+            lastLValue = address;
+            lastLValueStart = stringBuilder.length();
+            stackPush(available.register);
+            return address.type;
+        }
         Type postfixType = castToRValue(visit(ctx.postfix()), ctx);
         typeCheck(visit(ctx.expression()), Type.IntType.class, ValueKind.RVALUE, ctx);
         stackPop("t1");
@@ -619,14 +1460,20 @@ public final class MainVisitor extends MiniDecafBaseVisitor<Type> {
         if (postfixType instanceof Type.PointerType) {
             stringBuilder.append("\tslli t1, t1, 2\n").
                     append("\tadd t0, t0, t1\n");
+            addValue(address);
             stackPush("t0");
+            lastLValue = address;
+            lastLValueStart = start;
             return postfixType.dereferenced();
         } else if (postfixType instanceof Type.ArrayType) {
             Type baseType = ((Type.ArrayType) postfixType).baseType;
             stringBuilder.append("\tli t2, ").append(baseType.getSize()).append("\n").
                     append("\tmul t1, t1, t2\n").
                     append("\tadd t0, t0, t1\n");
+            addValue(address);
             stackPush("t0");
+            lastLValue = address;
+            lastLValueStart = start;
             return baseType;
         } else {
             reportError("the subscript operator could only be applied to a pointer or an array", ctx);
@@ -658,13 +1505,50 @@ public final class MainVisitor extends MiniDecafBaseVisitor<Type> {
         Optional<Symbol> optionSymbol = lookupSymbol(name);
         if (optionSymbol.isPresent()) {
             Symbol symbol = optionSymbol.get();
-            stringBuilder.append("\taddi t0, fp, ").append(symbol.offset).append("\n");
-            stackPush("t0");
+            if (symbol.register != null) { // 寄存器变量没有地址，由使用者直接读写寄存器
+                registerLValue = symbol.register;
+                lastLValue = null;
+                return symbol.type;
+            }
+            lastLValue = symbol.live ? identNumber(name) : null;
+            lastLValueStart = stringBuilder.length();
+            ValueTable.Value invariant = valueTable.invariant("&fp" + symbol.offset);
+            if (invariant != null) // 地址已经外提到循环之外
+                stackPush(invariant.register);
+            else {
+                stringBuilder.append("\taddi t0, fp, ").append(symbol.offset).append("\n");
+                stackPush("t0");
+            }
             return symbol.type;
         } else if (declaredGlobalTable.get(name) != null) { // 全局变量
-            stringBuilder.append("\tlui t0, %hi(").append(name).append(")\n") // 读出全局变量地址的高 20 位
-                    .append("\taddi t0, t0, %lo(").append(name).append(")\n"); // 读出全局变量地址的低 12 位
-            stackPush("t0");
+            Integer constant = globalAnalysis.constantValue(name);
+            if (constant != null) { // 只读的全局变量直接使用初值
+                stringBuilder.append("\tli t0, ").append(constant).append("\n");
+                stackPush("t0");
+                lastLValue = null;
+                return declaredGlobalTable.get(name).valueCast(ValueKind.RVALUE);
+            }
+            ValueTable.Value address = identNumber(name);
+            String register = globalAddressRegisters.get(name);
+            if (register != null) { // 地址已经在寄存器中
+                lastLValueStart = stringBuilder.length();
+                stackPush(register);
+                lastLValue = address;
+                return declaredGlobalTable.get(name);
+            }
+            ValueTable.Value available = valueTable.lookup(address.key);
+            if (available != null)
+                materialize(available);
+            lastLValueStart = stringBuilder.length();
+            if (available != null)
+                stackPush(available.register);
+            else {
+                stringBuilder.append("\tlui t0, %hi(").append(name).append(")\n") // 读出全局变量地址的高 20 位
+                        .append("\taddi t0, t0, %lo(").append(name).append(")\n"); // 读出全局变量地址的低 12 位
+                addValue(address);
+                stackPush("t0");
+            }
+            lastLValue = address;
             return declaredGlobalTable.get(name);
         } else {
             reportError("use variable that is not defined", ctx);
@@ -690,8 +1574,11 @@ public final class MainVisitor extends MiniDecafBaseVisitor<Type> {
      * @param reg 待压栈的寄存器
      */
     private void stackPush(String reg) {
+        lastPushPosition = stringBuilder.length();
+        lastPushRegister = reg;
         stringBuilder.append("\taddi sp, sp, -4\n");
         stringBuilder.append("\tsw ").append(reg).append(", 0(sp)\n");
+        lastPushEnd = stringBuilder.length();
     }
 
     /**
@@ -700,17 +1587,412 @@ public final class MainVisitor extends MiniDecafBaseVisitor<Type> {
      * @param reg 用于存储栈顶值的寄存器
      */
     private void stackPop(String reg) {
+        if (lastPushEnd == stringBuilder.length()) { // 紧跟在压栈之后的出栈可以直接在寄存器之间传递
+            stringBuilder.setLength(lastPushPosition);
+            lastPushEnd = -1;
+            if (!reg.equals(lastPushRegister))
+                stringBuilder.append("\tmv ").append(reg).append(", ").append(lastPushRegister).append("\n");
+            return;
+        }
         stringBuilder.append("\tlw ").append(reg).append(", 0(sp)\n");
         stringBuilder.append("\taddi sp, sp, 4\n");
     }
 
+    /**
+     * 对条件表达式求值并根据结果跳转。比较运算直接生成比较并跳转的指令，不必先把比较结果算成 0 或 1。
+     *
+     * @param condition 条件表达式
+     * @param when      为 true 时在条件成立时跳转，否则在条件不成立时跳转
+     * @param label     跳转目标
+     */
+    private void branch(ParseTree condition, boolean when, String label, ParserRuleContext ctx) {
+        ParseTree tree = condition;
+        while (tree.getChildCount() == 1 && !(tree.getChild(0) instanceof TerminalNode))
+            tree = tree.getChild(0);
+        String op = tree.getChildCount() == 3 ? tree.getChild(1).getText() : null;
+        if (tree instanceof MiniDecafParser.RelationalContext && op != null) {
+            var relational = (MiniDecafParser.RelationalContext) tree;
+            typeCheck(visit(relational.relational()), Type.IntType.class, ctx);
+            typeCheck(visit(relational.additive()), Type.IntType.class, ctx);
+        } else if (tree instanceof MiniDecafParser.EqualityContext && op != null) {
+            var equality = (MiniDecafParser.EqualityContext) tree;
+            Type leftType = castToRValue(visit(equality.equality()), ctx);
+            Type rightType = castToRValue(visit(equality.relational()), ctx);
+            if (!leftType.equals(rightType))
+                reportError("the types of the both sides of \"==\"/\"!=\" must be same", ctx);
+            if (leftType instanceof Type.ArrayType || rightType instanceof Type.ArrayType)
+                reportError("array type cannot compare", ctx);
+        } else {
+            typeCheck(visit(condition), Type.IntType.class, ctx);
+            stackPop("t0");
+            stringBuilder.append(when ? "\tbnez" : "\tbeqz").append(" t0, ").append(label).append("\n");
+            return;
+        }
+        stackPop("t1");
+        stackPop("t0");
+        if (!when) // 条件不成立时跳转，取相反的比较
+            op = Map.of("<", ">=", ">", "<=", "<=", ">", ">=", "<", "==", "!=", "!=", "==").get(op);
+        String instruction = Map.of("<", "blt", ">", "bgt", "<=", "ble", ">=", "bge", "==", "beq", "!=", "bne").get(op);
+        stringBuilder.append("\t").append(instruction).append(" t0, t1, ").append(label).append("\n");
+    }
+
+    /**
+     * 求值一个值会被丢弃的表达式。若它是对从不被读取的变量的赋值，则只对右侧求值。
+     */
+    private void visitDiscarded(MiniDecafParser.ExpressionContext ctx) {
+        String variable = DeadCodeAnalysis.storedVariable(ctx);
+        if (variable != null) {
+            Optional<Symbol> symbol = lookupSymbol(variable);
+            if (symbol.isPresent() && !symbol.get().live) {
+                visitDeadStore(ctx.assignment().expression(), symbol.get().type, ctx);
+                return;
+            }
+        }
+        visit(ctx);
+        discardValue();
+    }
+
+    /**
+     * 处理对从不被读取的变量的赋值：只做类型检查，右侧有副作用时求值后丢弃，否则不生成代码。
+     *
+     * @param expr 赋值的右侧
+     * @param type 变量的类型
+     */
+    private void visitDeadStore(MiniDecafParser.ExpressionContext expr, Type type, ParserRuleContext ctx) {
+        int position = stringBuilder.length();
+        var values = valueTable.save();
+        valueTable.clear(); // 可能被删除的代码不能复用（从而改动）之前的代码
+        Type exprType = castToRValue(visit(expr), ctx);
+        if (!exprType.equals(type.valueCast(ValueKind.RVALUE)))
+            reportError("assign value of type " + exprType + " to some variable of type " + type, ctx);
+        if (DeadCodeAnalysis.hasSideEffect(expr))
+            stringBuilder.append("\taddi sp, sp, 4\n");
+        else {
+            discardCode(position);
+            valueTable.restore(values);
+        }
+    }
+
+    /**
+     * 只对一段代码做语义检查：照常访问，然后删除生成的代码，之前求出的值仍然可用。
+     */
+    private void visitChecked(Runnable visitor) {
+        int position = stringBuilder.length();
+        int coldPosition = coldCode.length();
+        var values = valueTable.save();
+        valueTable.clear(); // 要删除的代码不能复用（从而改动）之前的代码
+        visitor.run();
+        discardCode(position);
+        coldCode.setLength(coldPosition);
+        valueTable.restore(values);
+    }
+
+    /**
+     * 删除从 position 开始生成的代码。
+     */
+    private void discardCode(int position) {
+        stringBuilder.setLength(position);
+        lastPushEnd = -1;
+        valueTable.clear();
+    }
+
+    /**
+     * 丢弃表达式的值，寄存器变量作为表达式的值时栈上没有内容。
+     */
+    private void discardValue() {
+        if (registerLValue != null)
+            registerLValue = null;
+        else
+            stringBuilder.append("\taddi sp, sp, 4\n");
+    }
+
+    /**
+     * 变量的值编号：栈上变量和全局变量是它们的地址，寄存器变量是寄存器本身。
+     * 栈上的地址依赖 "&fp"，栈槽被复用时使从中读出的值失效。
+     */
+    private ValueTable.Value identNumber(String name) {
+        Optional<Symbol> optionSymbol = lookupSymbol(name);
+        if (optionSymbol.isPresent()) {
+            Symbol symbol = optionSymbol.get();
+            if (symbol.register != null)
+                return new ValueTable.Value(symbol.register, symbol.type.valueCast(ValueKind.RVALUE), Set.of(symbol.register));
+            return new ValueTable.Value("&fp" + symbol.offset, symbol.type, Set.of("&fp"));
+        }
+        return new ValueTable.Value("&" + name, declaredGlobalTable.get(name), Set.of());
+    }
+
+    /**
+     * 计算纯表达式右值的值编号，表达式含有函数调用、赋值等不支持的运算时返回 null。
+     * 支持的运算与生成代码时一致：变量、整数常量、整数的加减乘除以及下标运算。
+     */
+    private ValueTable.Value valueNumber(ParseTree tree) {
+        while (tree.getChildCount() == 1 && !(tree.getChild(0) instanceof TerminalNode))
+            tree = tree.getChild(0);
+        if (tree instanceof MiniDecafParser.NumberPrimaryContext)
+            return new ValueTable.Value(tree.getText(), new Type.IntType(), Set.of());
+        if (tree instanceof MiniDecafParser.ParenthesizedPrimaryContext)
+            return valueNumber(((MiniDecafParser.ParenthesizedPrimaryContext) tree).expression());
+        if (tree instanceof MiniDecafParser.IdentPrimaryContext) {
+            String name = tree.getText();
+            Optional<Symbol> symbol = lookupSymbol(name);
+            if (symbol.isPresent() ? !symbol.get().live : declaredGlobalTable.get(name) == null)
+                return null;
+            ValueTable.Value variable = identNumber(name);
+            if ((symbol.isPresent() && symbol.get().register != null) || variable.type instanceof Type.ArrayType)
+                return variable; // 数组的右值就是它的地址
+            return loadedValue(variable, variable.type);
+        }
+        if (tree instanceof MiniDecafParser.ArrayPostfixContext) {
+            ValueTable.Value address = addressNumber((MiniDecafParser.ArrayPostfixContext) tree);
+            if (address == null || address.type instanceof Type.ArrayType)
+                return address;
+            return loadedValue(address, address.type);
+        }
+        if ((tree instanceof MiniDecafParser.AdditiveContext || tree instanceof MiniDecafParser.MultiplicativeContext)
+                && tree.getChildCount() == 3) {
+            ValueTable.Value left = valueNumber(tree.getChild(0));
+            ValueTable.Value right = valueNumber(tree.getChild(2));
+            if (left == null || right == null || !(left.type instanceof Type.IntType) || !(right.type instanceof Type.IntType))
+                return null;
+            Set<String> dependencies = new HashSet<>(left.dependencies);
+            dependencies.addAll(right.dependencies);
+            return new ValueTable.Value("(" + left.key + tree.getChild(1).getText() + right.key + ")",
+                    new Type.IntType(), dependencies);
+        }
+        return null;
+    }
+
+    /**
+     * 计算下标表达式所得地址的值编号，返回值的类型是下标运算的结果类型。
+     */
+    private ValueTable.Value addressNumber(MiniDecafParser.ArrayPostfixContext ctx) {
+        ValueTable.Value base = valueNumber(ctx.postfix());
+        ValueTable.Value index = valueNumber(ctx.expression());
+        if (base == null || index == null || !(index.type instanceof Type.IntType))
+            return null;
+        Type type;
+        if (base.type instanceof Type.PointerType)
+            type = base.type.dereferenced();
+        else if (base.type instanceof Type.ArrayType)
+            type = ((Type.ArrayType) base.type).baseType;
+        else
+            return null;
+        Set<String> dependencies = new HashSet<>(base.dependencies);
+        dependencies.addAll(index.dependencies);
+        return new ValueTable.Value(base.key + "[" + index.key + "]", type, dependencies);
+    }
+
+    /**
+     * 从某个地址读出的值的值编号，它依赖于该地址以及所读内存的类别。
+     */
+    private ValueTable.Value loadedValue(ValueTable.Value address, Type type) {
+        Set<String> dependencies = new HashSet<>(address.dependencies);
+        dependencies.add(address.key);
+        dependencies.add(memoryClass(type));
+        return new ValueTable.Value("*" + address.key, type.valueCast(ValueKind.RVALUE), dependencies);
+    }
+
+    /**
+     * 别名模型：写入某个类型的左值时，只有读取同一类型左值得到的值可能改变。
+     * 程序中有类型转换时不作区分，任何写入都可能改变任何读取的结果。
+     */
+    private String memoryClass(Type type) {
+        if (!typeBasedAlias)
+            return "mem";
+        return type instanceof Type.PointerType ? "mem:ptr" + ((Type.PointerType) type).starNum : "mem:int";
+    }
+
+    /**
+     * 登记刚求出、位于 t0 中的值，value 为 null 时不做任何事。
+     */
+    private void addValue(ValueTable.Value value) {
+        if (value != null)
+            valueTable.add(value, stringBuilder.length(), "t0");
+    }
+
+    /**
+     * 值第一次被复用时，在它求值结束的位置补上复制到寄存器的指令。
+     */
+    private void materialize(ValueTable.Value value) {
+        if (value.materialized)
+            return;
+        value.materialized = true;
+        String code = "\tmv " + value.register + ", " + value.source + "\n";
+        stringBuilder.insert(value.position, code);
+        valueTable.shift(value.position, code.length());
+        if (lastPushPosition >= value.position)
+            lastPushPosition += code.length();
+        if (lastPushEnd > value.position)
+            lastPushEnd += code.length();
+    }
+
+    /**
+     * 局部变量被写入，使依赖它的值失效。
+     */
+    private void killVariable(Symbol symbol) {
+        if (symbol.register != null)
+            valueTable.kill(symbol.register);
+        else {
+            valueTable.kill(memoryClass(symbol.type));
+            valueTable.kill("&fp" + symbol.offset);
+        }
+    }
+
+    /**
+     * 插桩时在当前位置给剖析点的计数器加一，只用到 t0 和 t1。
+     */
+    private void countBlock(ParseTree node) {
+        if (options.instrumentFile == null)
+            return;
+        Integer counter = profilePoints.counter(node);
+        if (counter == null)
+            return;
+        String address = ".profile.counters+" + 4 * counter;
+        stringBuilder.append("\tlui t0, %hi(").append(address).append(")\n")
+                .append("\tlw t1, %lo(").append(address).append(")(t0)\n")
+                .append("\taddi t1, t1, 1\n")
+                .append("\tsw t1, %lo(").append(address).append(")(t0)\n");
+    }
+
+    /**
+     * 剖析点的执行次数，没有剖析数据时返回 -1。
+     */
+    private long profileCount(ParseTree node) {
+        return profile == null ? -1 : profile.count(profilePoints.key(node));
+    }
+
+    /**
+     * 生成插桩所需的计数器表，以及 main 返回时把计数写入剖析数据文件的函数 .profile.dump。
+     * 它保留 a0 中 main 的返回值。
+     */
+    private void emitProfileDump() {
+        stringBuilder.append("\t.bss\n\t.align 2\n.profile.counters:\n")
+                .append("\t.zero ").append(4 * profilePoints.size()).append("\n");
+        stringBuilder.append("\t.section .rodata\n")
+                .append(".profile.file:\n\t.string \"")
+                .append(options.instrumentFile.replace("\\", "\\\\").replace("\"", "\\\"")).append("\"\n")
+                .append(".profile.mode:\n\t.string \"w\"\n")
+                .append(".profile.header:\n\t.string \"").append(Profile.HEADER).append("\\n\"\n");
+        for (int i = 0; i < profilePoints.size(); ++i)
+            stringBuilder.append(".profile.line").append(i).append(":\n\t.string \"")
+                    .append(profilePoints.line(i)).append("\\n\"\n");
+        stringBuilder.append("\t.text\n.profile.dump:\n")
+                .append("\taddi sp, sp, -16\n").append("\tsw ra, 12(sp)\n").append("\tsw s1, 8(sp)\n").append("\tsw a0, 4(sp)\n")
+                .append("\tlui a0, %hi(.profile.file)\n").append("\taddi a0, a0, %lo(.profile.file)\n")
+                .append("\tlui a1, %hi(.profile.mode)\n").append("\taddi a1, a1, %lo(.profile.mode)\n")
+                .append("\tcall fopen\n")
+                .append("\tbeqz a0, .profile.done\n") // 无法打开文件时不写出
+                .append("\tmv s1, a0\n")
+                .append("\tlui a1, %hi(.profile.header)\n").append("\taddi a1, a1, %lo(.profile.header)\n")
+                .append("\tcall fprintf\n");
+        for (int i = 0; i < profilePoints.size(); ++i) {
+            String counter = ".profile.counters+" + 4 * i;
+            stringBuilder.append("\tmv a0, s1\n")
+                    .append("\tlui a1, %hi(.profile.line").append(i).append(")\n")
+                    .append("\taddi a1, a1, %lo(.profile.line").append(i).append(")\n")
+                    .append("\tlui t0, %hi(").append(counter).append(")\n")
+                    .append("\tlw a2, %lo(").append(counter).append(")(t0)\n")
+                    .append("\tcall fprintf\n");
+        }
+        stringBuilder.append("\tmv a0, s1\n").append("\tcall fclose\n")
+                .append(".profile.done:\n")
+                .append("\tlw a0, 4(sp)\n").append("\tlw s1, 8(sp)\n").append("\tlw ra, 12(sp)\n").append("\taddi sp, sp, 16\n")
+                .append("\tret\n");
+    }
+
+    /**
+     * 开启新的作用域，并记录进入作用域时已占用的栈槽数。
+     */
+    private void enterScope() {
+        symbolTable.add(new HashMap<>());
+        scopeLocalCount.push(localCount);
+        scopeRegisterCount.push(registerCount);
+    }
+
+    /**
+     * 关闭当前作用域。其中声明的局部变量生命周期已经结束，它们的栈槽可以被之后不相交的作用域复用。
+     */
+    private void exitScope() {
+        symbolTable.pop();
+        int count = scopeLocalCount.pop();
+        if (count != localCount) // 栈槽将被其它类型的变量复用，从中读出的值不再可用
+            valueTable.kill("&fp");
+        localCount = count;
+        registerCount = scopeRegisterCount.pop();
+    }
+
+    /**
+     * 为局部变量分配栈槽，同时更新栈帧所需的最大栈槽数。
+     *
+     * @param slots 所需的栈槽数，每个栈槽 4 字节
+     * @return 分配到的栈槽相对于 fp 的偏移量
+     */
+    private int allocateLocal(int slots) {
+        localCount += slots;
+        totalLocalCount += slots;
+        maxLocalCount = Math.max(maxLocalCount, localCount);
+        return -4 * localCount;
+    }
+
+    /**
+     * 为变量分配一个被调用者保存寄存器，与栈槽一样，不相交作用域中的变量可以共用寄存器。
+     *
+     * @return 分配到的寄存器，寄存器用完时返回 null
+     */
+    private String allocateRegister() {
+        if (registerCount == SAVED_REGISTER_NUM)
+            return null;
+        registerCount++;
+        maxRegisterCount = Math.max(maxRegisterCount, registerCount);
+        return "s" + registerCount;
+    }
+
+    /**
+     * 将常量写入局部变量。
+     */
+    private void storeConstant(Symbol symbol, int value) {
+        killVariable(symbol);
+        if (symbol.register != null)
+            stringBuilder.append("\tli ").append(symbol.register).append(", ").append(value).append("\n");
+        else
+            stringBuilder.append("\tli t0, ").append(value).append("\n")
+                    .append("\tsw t0, ").append(symbol.offset).append("(fp)\n");
+    }
+
+    /**
+     * 给局部变量加上一个常量。
+     */
+    private void addConstant(Symbol symbol, int value) {
+        killVariable(symbol);
+        String register = symbol.register != null ? symbol.register : "t0";
+        if (symbol.register == null)
+            loadVariable(symbol, register);
+        if (value >= -2048 && value < 2048)
+            stringBuilder.append("\taddi ").append(register).append(", ").append(register).append(", ").append(value).append("\n");
+        else
+            stringBuilder.append("\tli t1, ").append(value).append("\n")
+                    .append("\tadd ").append(register).append(", ").append(register).append(", t1\n");
+        if (symbol.register == null)
+            stringBuilder.append("\tsw t0, ").append(symbol.offset).append("(fp)\n");
+    }
+
+    /**
+     * 将局部变量的值读入寄存器。
+     */
+    private void loadVariable(Symbol symbol, String reg) {
+        if (symbol.register != null)
+            stringBuilder.append("\tmv ").append(reg).append(", ").append(symbol.register).append("\n");
+        else
+            stringBuilder.append("\tlw ").append(reg).append(", ").append(symbol.offset).append("(fp)\n");
+    }
+
     /**
      * 优先从内层开始查询符号表
      *
      * @param v 被查询的变量名
      */
     private Optional<Symbol> lookupSymbol(String v) {
-        for (int i = symbolTable.size() - 1; i >= 0; --i) {
+        for (int i = symbolTable.size() - 1; i >= scopeBase; --i) {
             var map = symbolTable.elementAt(i);
             if (map.containsKey(v))
                 return Optional.of(map.get(v));
@@ -732,8 +2014,40 @@ public final class MainVisitor extends MiniDecafBaseVisitor<Type> {
         if (neededValueCat == ValueKind.LVALUE && actualType.valueKind == ValueKind.RVALUE)
             reportError("an lvalue is needed here", ctx);
         if (neededValueCat == ValueKind.RVALUE && actualType.valueKind == ValueKind.LVALUE) {
-            stackPop("t0");
-            stringBuilder.append("\tlw t0, 0(t0)\n");
+            if (registerLValue != null) { // 寄存器变量的值直接压栈
+                stackPush(registerLValue);
+                registerLValue = null;
+                return actualType.valueCast(ValueKind.RVALUE);
+            }
+            ValueTable.Value address = lastLValue;
+            lastLValue = null;
+            ValueTable.Value loaded = address == null ? null : loadedValue(address, actualType);
+            ValueTable.Value available = loaded == null ? null : valueTable.lookup(loaded.key);
+            if (available != null) { // 同一地址上的值已经读过，且之后没有可能别名的写入
+                if (lastPushEnd == stringBuilder.length()) {
+                    // 地址计算没有副作用，可以整个删去；不能删去时只删去压栈
+                    if (lastLValueStart >= 0) {
+                        stringBuilder.setLength(lastLValueStart);
+                        valueTable.truncate(lastLValueStart);
+                    } else
+                        stringBuilder.setLength(lastPushPosition);
+                    lastPushEnd = -1;
+                } else
+                    stringBuilder.append("\taddi sp, sp, 4\n");
+                materialize(available);
+                stackPush(available.register);
+                return actualType.valueCast(ValueKind.RVALUE);
+            }
+            String base = "t0";
+            if (lastPushEnd == stringBuilder.length()) { // 地址刚刚压栈，直接以它所在的寄存器为基址
+                base = lastPushRegister;
+                stringBuilder.setLength(lastPushPosition);
+                lastPushEnd = -1;
+            } else
+                stackPop("t0");
+            stringBuilder.append("\tlw t0, 0(").append(base).append(")\n");
+            if (loaded != null)
+                addValue(loaded);
             stackPush("t0");
             return actualType.valueCast(ValueKind.RVALUE);
         }
@@ -0,0 +1,105 @@
+package minidecaf;
+
+import java.util.List;
+
+/**
+ * 编译选项，由命令行参数解析得到。
+ */
+public class Options {
+    public static final String USAGE = "Usage: minidecaf [options] <input minidecaf file> <output riscv assembly file>\n"
+            + "Options:\n"
+            + "  --unroll-factor=N      unroll factor for counted loops that are too large to unroll fully (default 4)\n"
+            + "  --unroll-limit=N       size limit of an unrolled loop body, in tokens (default 256, 0 disables unrolling)\n"
+            + "  --no-schedule          do not reorder instructions within basic blocks\n"
+            + "  --no-licm              do not hoist loop-invariant computations out of loops\n"
+            + "  --latency=CLASS:N,...  latencies of the machine model used by the scheduler, CLASS is one of\n"
+            + "                         alu, load, mul, div (default alu:1,load:2,mul:3,div:20)\n"
+            + "  --instrument[=FILE]    count executions of basic blocks and call sites, and write the counts\n"
+            + "                         to FILE (default minidecaf.profile) when main returns\n"
+            + "  --profile-use FILE     use the counts in FILE to guide inlining, unrolling and branch layout\n"
+            + "  --eval-fuel=N          steps allowed to evaluate a call to a pure function with constant arguments\n"
+            + "                         at compile time (default 100000, 0 disables compile-time evaluation)\n"
+            + "  --lexer=NAME           lexer to use: antlr (default), table for the faster table-driven lexer, or check\n"
+            + "                         to run both and stop at the first token that differs\n"
+            + "  --rvc                  target RV32IMC: prefer registers x8-x15 and emit compressed c.* instructions\n";
+
+    public String inputFile;
+    public String outputFile;
+    public int unrollFactor = 4; // 计数循环无法完全展开时的部分展开倍数
+    public int unrollLimit = 256; // 展开后循环体的总规模上限，以词法单元数计
+    public boolean schedule = true; // 是否进行基本块内的指令调度
+    public boolean licm = true; // 是否把循环不变量外提到循环之前
+    public MachineModel machineModel = new MachineModel(); // 指令调度所用的机器模型
+    public String instrumentFile; // 插桩时写出剖析数据的文件，不插桩时为 null
+    public String profileFile; // 用于指导优化的剖析数据文件，不使用时为 null
+    public boolean compress = false; // 是否生成 RV32C 压缩指令
+    public int evalFuel = 100000; // 在编译期对纯函数调用求值时允许执行的步数
+    public String lexer = "antlr"; // 词法分析器：antlr、table 或 check
+
+    /**
+     * 解析命令行参数。
+     *
+     * @param args 命令行参数
+     * @return 解析出的编译选项
+     * @throws IllegalArgumentException 参数不合法
+     */
+    public static Options parse(String[] args) {
+        Options options = new Options();
+        int fileNum = 0;
+        for (int i = 0; i < args.length; ++i) {
+            String arg = args[i];
+            if (arg.startsWith("--unroll-factor="))
+                options.unrollFactor = parseInt(arg);
+            else if (arg.startsWith("--unroll-limit="))
+                options.unrollLimit = parseInt(arg);
+            else if (arg.equals("--no-schedule"))
+                options.schedule = false;
+            else if (arg.equals("--no-licm"))
+                options.licm = false;
+            else if (arg.startsWith("--latency="))
+                options.machineModel = MachineModel.parse(arg.substring(arg.indexOf('=') + 1));
+            else if (arg.equals("--instrument"))
+                options.instrumentFile = "minidecaf.profile";
+            else if (arg.startsWith("--instrument="))
+                options.instrumentFile = arg.substring(arg.indexOf('=') + 1);
+            else if (arg.equals("--profile-use")) {
+                if (++i == args.length)
+                    throw new IllegalArgumentException("missing profile file after --profile-use");
+                options.profileFile = args[i];
+            } else if (arg.startsWith("--profile-use="))
+                options.profileFile = arg.substring(arg.indexOf('=') + 1);
+            else if (arg.startsWith("--eval-fuel="))
+                options.evalFuel = parseInt(arg);
+            else if (arg.startsWith("--lexer=")) {
+                options.lexer = arg.substring(arg.indexOf('=') + 1);
+                if (!List.of("antlr", "table", "check").contains(options.lexer))
+                    throw new IllegalArgumentException("unknown lexer " + options.lexer);
+            } else if (arg.equals("--rvc"))
+                options.compress = true;
+            else if (arg.startsWith("-"))
+                throw new IllegalArgumentException("unknown option " + arg);
+            else if (fileNum == 0) {
+                options.inputFile = arg;
+                fileNum++;
+            } else if (fileNum == 1) {
+                options.outputFile = arg;
+                fileNum++;
+            } else
+                throw new IllegalArgumentException("too many files");
+        }
+        if (fileNum != 2)
+            throw new IllegalArgumentException("both input and output files are needed");
+        return options;
+    }
+
+    private static int parseInt(String arg) {
+        String value = arg.substring(arg.indexOf('=') + 1);
+        try {
+            int result = Integer.parseInt(value);
+            if (result < 0) throw new IllegalArgumentException("negative value in " + arg);
+            return result;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid number in " + arg);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package minidecaf;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * 剖析数据：插桩后的程序在 main 返回时写出的各剖析点的执行次数。
+ * <p>
+ * 格式为文本，第一行是 "minidecaf-profile 1"，之后每行一个计数器：
+ * "block 函数名 编号 次数" 或 "call 函数名 编号 被调用函数名 次数"，编号见 {@link ProfilePoints}。
+ * 同一个键出现多次时次数相加，因此多次运行得到的剖析数据可以直接拼接在一起。
+ */
+public final class Profile {
+    public static final String HEADER = "minidecaf-profile 1";
+    private static final double HOT_FRACTION = 0.9; // 热点基本块合起来占全部基本块执行次数的比例
+    private final Map<String, Long> counts = new HashMap<>();
+    private long hotThreshold = Long.MAX_VALUE; // 执行次数不少于它的基本块和调用点是热点
+
+    /**
+     * 读取剖析数据。
+     *
+     * @throws IllegalArgumentException 文件格式不正确
+     */
+    public static Profile read(String file) throws IOException {
+        Profile profile = new Profile();
+        List<String> lines = Files.readAllLines(Path.of(file));
+        if (lines.isEmpty() || !lines.get(0).equals(HEADER))
+            throw new IllegalArgumentException(file + " is not a minidecaf profile");
+        for (String line : lines) {
+            if (line.isBlank() || line.equals(HEADER))
+                continue;
+            String[] fields = line.trim().split("\\s+");
+            int length = fields[0].equals("block") ? 4 : fields[0].equals("call") ? 5 : -1;
+            if (fields.length != length)
+                throw new IllegalArgumentException("invalid profile line: " + line);
+            try {
+                long count = Long.parseLong(fields[length - 1]);
+                profile.counts.merge(fields[0] + " " + fields[1] + " " + Integer.parseInt(fields[2]), count, Long::sum);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("invalid profile line: " + line);
+            }
+        }
+        // 按执行次数从多到少累加基本块，覆盖全部执行次数的 HOT_FRACTION 时的次数作为热点的下限
+        List<Long> blocks = new ArrayList<>();
+        long total = 0;
+        for (var entry : profile.counts.entrySet())
+            if (entry.getKey().startsWith("block ") && entry.getValue() > 0) {
+                blocks.add(entry.getValue());
+                total += entry.getValue();
+            }
+        blocks.sort(Comparator.reverseOrder());
+        long sum = 0;
+        for (long count : blocks) {
+            sum += count;
+            profile.hotThreshold = count;
+            if (sum >= HOT_FRACTION * total)
+                break;
+        }
+        return profile;
+    }
+
+    /**
+     * 剖析点的执行次数，剖析数据中没有它（例如源程序已经改动）时返回 -1。
+     *
+     * @param key 剖析点的键，见 {@link ProfilePoints#key}
+     */
+    public long count(String key) {
+        return key == null ? -1 : counts.getOrDefault(key, -1L);
+    }
+
+    public boolean isHot(long count) {
+        return count > 0 && count >= hotThreshold;
+    }
+}
@@ -0,0 +1,121 @@
+package minidecaf;
+
+import org.antlr.v4.runtime.tree.ParseTree;
+
+import java.util.*;
+
+/**
+ * 剖析点编号：在生成代码之前，为每个函数中需要计数的位置编号。插桩和使用剖析数据时都以同样的方式编号，
+ * 因此剖析数据以函数名和编号为键，与代码生成的细节（标签编号、是否展开等）无关，只要源程序不变就保持稳定。
+ * <p>
+ * 基本块计数器在每个函数中按先序编号：0 号是函数入口；if 语句的 then 分支和 else 分支（没有 else 分支时
+ * 以 if 语句本身代表条件不成立的一侧）；循环语句本身（进入循环的次数）和循环体（迭代次数）；switch 语句的每个 case；
+ * 条件表达式的两个分支。
+ * 调用边计数器单独按先序编号，每个调用点一个。
+ */
+public final class ProfilePoints extends MiniDecafBaseVisitor<Void> {
+    private final Map<ParseTree, Integer> counters = new HashMap<>(); // 剖析点 -> 计数器下标
+    private final List<String> keys = new ArrayList<>(); // 计数器下标 -> 剖析数据中的键
+    private final List<String> callees = new ArrayList<>(); // 计数器下标 -> 被调用的函数，基本块计数器为 null
+    private String currentFunction;
+    private int blockCount;
+    private int callCount;
+
+    @Override
+    public Void visitDefineFunction(MiniDecafParser.DefineFunctionContext ctx) {
+        currentFunction = ctx.IDENT(0).getText();
+        blockCount = callCount = 0;
+        addBlock(ctx);
+        return visitChildren(ctx);
+    }
+
+    @Override
+    public Void visitIfStatement(MiniDecafParser.IfStatementContext ctx) {
+        visit(ctx.expression());
+        addBlock(ctx.statement(0));
+        visit(ctx.statement(0));
+        if (ctx.statement().size() > 1) {
+            addBlock(ctx.statement(1));
+            visit(ctx.statement(1));
+        } else
+            addBlock(ctx);
+        return null;
+    }
+
+    @Override
+    public Void visitForStatement(MiniDecafParser.ForStatementContext ctx) {
+        addBlock(ctx);
+        addBlock(ctx.statement());
+        return visitChildren(ctx);
+    }
+
+    @Override
+    public Void visitWhileStatement(MiniDecafParser.WhileStatementContext ctx) {
+        addBlock(ctx);
+        addBlock(ctx.statement());
+        return visitChildren(ctx);
+    }
+
+    @Override
+    public Void visitDoWhileStatement(MiniDecafParser.DoWhileStatementContext ctx) {
+        addBlock(ctx);
+        addBlock(ctx.statement());
+        return visitChildren(ctx);
+    }
+
+    @Override
+    public Void visitSwitch_case(MiniDecafParser.Switch_caseContext ctx) {
+        addBlock(ctx);
+        return visitChildren(ctx);
+    }
+
+    @Override
+    public Void visitConditional(MiniDecafParser.ConditionalContext ctx) {
+        if (ctx.children.size() > 1) {
+            addBlock(ctx.expression());
+            addBlock(ctx.conditional());
+        }
+        return visitChildren(ctx);
+    }
+
+    @Override
+    public Void visitFunctionPostfix(MiniDecafParser.FunctionPostfixContext ctx) {
+        counters.put(ctx, keys.size());
+        keys.add("call " + currentFunction + " " + callCount++);
+        callees.add(ctx.IDENT().getText());
+        return visitChildren(ctx);
+    }
+
+    private void addBlock(ParseTree node) {
+        counters.put(node, keys.size());
+        keys.add("block " + currentFunction + " " + blockCount++);
+        callees.add(null);
+    }
+
+    /**
+     * 剖析点对应的计数器下标，不是剖析点时返回 null。
+     */
+    public Integer counter(ParseTree node) {
+        return counters.get(node);
+    }
+
+    /**
+     * 剖析点在剖析数据中的键，形如 "block main 3" 或 "call main 0"，不是剖析点时返回 null。
+     */
+    public String key(ParseTree node) {
+        Integer counter = counters.get(node);
+        return counter == null ? null : keys.get(counter);
+    }
+
+    /**
+     * 计数器在剖析数据中的一行，计数值的位置以 %u 占位。
+     */
+    public String line(int counter) {
+        String callee = callees.get(counter);
+        return keys.get(counter) + (callee != null ? " " + callee : "") + " %u";
+    }
+
+    public int size() {
+        return keys.size();
+    }
+}
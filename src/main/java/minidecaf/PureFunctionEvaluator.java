@@ -0,0 +1,565 @@
+package minidecaf;
+
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+import java.math.BigInteger;
+import java.util.*;
+
+/**
+ * 纯函数的编译期求值：在生成代码之前找出纯函数，代码生成时实参都是常量的调用由这里的解释器求值，调用被替换为结果。
+ * <p>
+ * 纯函数的返回值和参数都是 int，函数体中只出现参数和 int 类型的局部变量及数组（因此不会读写全局变量），
+ * 没有取地址、解引用和类型转换（因此不会有逃逸的指针写入），调用的函数也都是纯函数。与其它分析一样，
+ * 这里按名字判断变量是否是局部的；解释时按作用域查找变量，仍然找不到时放弃求值。
+ * <p>
+ * 解释器与生成的代码语义一致：整数运算按 32 位回绕，|| 和 && 总是对两个操作数求值，除以 0 的结果与 RISC-V 的
+ * div、rem 指令相同。每求值一个语句或表达式消耗一份燃料，燃料耗尽（例如调用不终止）、调用层数过深、数组越界、
+ * 读取未初始化的变量时放弃求值，调用照常在运行时进行。纯函数的结果只取决于实参，求值成功的调用会被记住。
+ */
+public final class PureFunctionEvaluator extends MiniDecafBaseVisitor<Integer> {
+    private static final int MAX_DEPTH = 100; // 解释器中调用的最大层数
+    private static final int MAX_CELLS = 1 << 16; // 局部数组的最大元素数
+    private final Map<String, MiniDecafParser.DefineFunctionContext> definitions = new HashMap<>();
+    private final Set<String> pureFunctions = new HashSet<>();
+    private final Map<String, Integer> results = new HashMap<>(); // 函数名和实参 -> 返回值
+    private final int fuelLimit; // 每次求值的燃料，为 0 时不求值
+    private int fuel;
+    private int depth;
+    private Deque<Map<String, Variable>> scopes = new ArrayDeque<>(); // 当前函数的各层作用域，内层在前
+    private Transfer transfer = Transfer.NONE; // 正在执行的控制转移
+    private int returnValue;
+    private int lvalueIndex; // lvalue 返回的元素在数组中的下标
+
+    /**
+     * 语句执行后的控制转移。
+     */
+    private enum Transfer {NONE, BREAK, CONTINUE, RETURN}
+
+    /**
+     * 局部变量或数组，值为 null 的元素尚未初始化。
+     */
+    private static final class Variable {
+        final Integer[] cells;
+        final int[] dimensions; // 标量为空
+
+        Variable(int[] dimensions, int size) {
+            this.cells = new Integer[size];
+            this.dimensions = dimensions;
+        }
+    }
+
+    /**
+     * 放弃求值。
+     */
+    private static final class NotConstant extends RuntimeException {
+        NotConstant() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final NotConstant NOT_CONSTANT = new NotConstant();
+
+    public PureFunctionEvaluator(int fuelLimit) {
+        this.fuelLimit = fuelLimit;
+    }
+
+    @Override
+    public Integer visitProgram(MiniDecafParser.ProgramContext ctx) {
+        Map<String, Set<String>> callTable = new HashMap<>(); // 候选函数 -> 调用的函数
+        for (var child : ctx.children)
+            if (child instanceof MiniDecafParser.DefineFunctionContext) {
+                var definition = (MiniDecafParser.DefineFunctionContext) child;
+                String name = definition.IDENT(0).getText();
+                definitions.put(name, definition);
+                Set<String> callees = new HashSet<>();
+                if (isCandidate(definition, callees))
+                    callTable.put(name, callees);
+            }
+        // 从候选函数中反复去掉调用了非纯函数的函数，剩下的都是纯函数（可以互相递归）
+        pureFunctions.addAll(callTable.keySet());
+        boolean changed = true;
+        while (changed) {
+            changed = pureFunctions.removeIf(function -> !pureFunctions.containsAll(callTable.get(function)));
+        }
+        return null;
+    }
+
+    /**
+     * 判断函数本身是否满足纯函数的条件，同时收集它调用的函数。
+     */
+    private static boolean isCandidate(MiniDecafParser.DefineFunctionContext ctx, Set<String> callees) {
+        for (var type : ctx.type())
+            if (!type.getText().equals("int"))
+                return false;
+        Set<String> declared = new HashSet<>();
+        Set<String> used = new HashSet<>();
+        for (int i = 1; i < ctx.IDENT().size(); ++i)
+            declared.add(ctx.IDENT(i).getText());
+        return scan(ctx.compound_statement(), declared, used, callees) && declared.containsAll(used);
+    }
+
+    /**
+     * 收集函数体中声明和使用的变量名以及调用的函数，遇到指针、取地址、解引用或类型转换时返回 false。
+     */
+    private static boolean scan(ParseTree tree, Set<String> declared, Set<String> used, Set<String> callees) {
+        if (tree instanceof MiniDecafParser.LocalIntOrPointerDeclContext) {
+            var declaration = (MiniDecafParser.LocalIntOrPointerDeclContext) tree;
+            if (!declaration.type().getText().equals("int"))
+                return false;
+            declared.add(declaration.IDENT().getText());
+        } else if (tree instanceof MiniDecafParser.LocalArrayDeclContext) {
+            var declaration = (MiniDecafParser.LocalArrayDeclContext) tree;
+            if (!declaration.type().getText().equals("int"))
+                return false;
+            declared.add(declaration.IDENT().getText());
+        } else if (tree instanceof MiniDecafParser.OperatorUnaryContext) {
+            String op = tree.getChild(0).getText();
+            if (op.equals("&") || op.equals("*"))
+                return false;
+        } else if (tree instanceof MiniDecafParser.CastUnaryContext)
+            return false;
+        else if (tree instanceof MiniDecafParser.IdentPrimaryContext)
+            used.add(tree.getText());
+        else if (tree instanceof MiniDecafParser.FunctionPostfixContext)
+            callees.add(((MiniDecafParser.FunctionPostfixContext) tree).IDENT().getText());
+        for (int i = 0; i < tree.getChildCount(); ++i)
+            if (!scan(tree.getChild(i), declared, used, callees))
+                return false;
+        return true;
+    }
+
+    /**
+     * 在编译期对函数调用求值。
+     *
+     * @return 调用的结果，被调用的不是纯函数、实参不是常量或放弃求值时返回 null
+     */
+    public Integer evaluateCall(MiniDecafParser.FunctionPostfixContext ctx) {
+        if (fuelLimit == 0 || !pureFunctions.contains(ctx.IDENT().getText()))
+            return null;
+        fuel = fuelLimit;
+        depth = 0;
+        scopes = new ArrayDeque<>(); // 实参在空的作用域中求值，其中出现变量时就不是常量
+        transfer = Transfer.NONE;
+        try {
+            return evaluate(ctx);
+        } catch (NotConstant | StackOverflowError e) { // 表达式嵌套很深时解释器本身的栈也可能不够
+            return null;
+        }
+    }
+
+    /**
+     * 求值或执行一个节点，消耗一份燃料。
+     */
+    private Integer evaluate(ParseTree tree) {
+        if (--fuel < 0)
+            throw NOT_CONSTANT;
+        return tree.accept(this);
+    }
+
+    @Override
+    public Integer visitFunctionPostfix(MiniDecafParser.FunctionPostfixContext ctx) {
+        String name = ctx.IDENT().getText();
+        var definition = definitions.get(name);
+        if (!pureFunctions.contains(name) || definition.IDENT().size() - 1 != ctx.expression().size())
+            throw NOT_CONSTANT;
+        int[] arguments = new int[ctx.expression().size()];
+        for (int i = arguments.length - 1; i >= 0; --i) // 与生成的代码一样从后往前求值
+            arguments[i] = evaluate(ctx.expression(i));
+        String key = name + Arrays.toString(arguments);
+        Integer result = results.get(key);
+        if (result != null)
+            return result;
+        if (++depth > MAX_DEPTH)
+            throw NOT_CONSTANT;
+        Deque<Map<String, Variable>> callerScopes = scopes;
+        scopes = new ArrayDeque<>();
+        scopes.push(new HashMap<>());
+        for (int i = 0; i < arguments.length; ++i) {
+            Variable parameter = new Variable(new int[0], 1);
+            parameter.cells[0] = arguments[i];
+            scopes.peek().put(definition.IDENT(i + 1).getText(), parameter);
+        }
+        evaluate(definition.compound_statement());
+        result = transfer == Transfer.RETURN ? returnValue : 0; // 没有返回语句时返回 0
+        transfer = Transfer.NONE;
+        scopes = callerScopes;
+        depth--;
+        results.put(key, result);
+        return result;
+    }
+
+    @Override
+    public Integer visitCompound_statement(MiniDecafParser.Compound_statementContext ctx) {
+        scopes.push(new HashMap<>());
+        visitBlockItems(ctx.blockitem());
+        scopes.pop();
+        return null;
+    }
+
+    /**
+     * 依次执行一串语句和声明，直到发生控制转移。
+     */
+    private void visitBlockItems(List<MiniDecafParser.BlockitemContext> blockItems) {
+        for (var blockItem : blockItems) {
+            evaluate(blockItem);
+            if (transfer != Transfer.NONE)
+                return;
+        }
+    }
+
+    @Override
+    public Integer visitLocalIntOrPointerDecl(MiniDecafParser.LocalIntOrPointerDeclContext ctx) {
+        Variable variable = new Variable(new int[0], 1);
+        if (ctx.expression() != null)
+            variable.cells[0] = evaluate(ctx.expression());
+        declare(ctx.IDENT().getText(), variable);
+        return null;
+    }
+
+    @Override
+    public Integer visitLocalArrayDecl(MiniDecafParser.LocalArrayDeclContext ctx) {
+        int[] dimensions = new int[ctx.NUM().size()];
+        long size = 1;
+        for (int i = 0; i < dimensions.length; ++i) {
+            long dimension = literal(ctx.NUM(i));
+            if (dimension > MAX_CELLS)
+                throw NOT_CONSTANT;
+            dimensions[i] = (int) dimension;
+            size *= dimensions[i];
+            if (size > MAX_CELLS)
+                throw NOT_CONSTANT;
+        }
+        fuel -= size; // 数组的每个元素都消耗燃料
+        declare(ctx.IDENT().getText(), new Variable(dimensions, (int) size));
+        return null;
+    }
+
+    private void declare(String name, Variable variable) {
+        if (scopes.isEmpty() || scopes.peek().put(name, variable) != null)
+            throw NOT_CONSTANT;
+    }
+
+    @Override
+    public Integer visitReturnStatement(MiniDecafParser.ReturnStatementContext ctx) {
+        returnValue = evaluate(ctx.expression());
+        transfer = Transfer.RETURN;
+        return null;
+    }
+
+    @Override
+    public Integer visitExpressionStatement(MiniDecafParser.ExpressionStatementContext ctx) {
+        if (ctx.expression() != null)
+            evaluate(ctx.expression());
+        return null;
+    }
+
+    @Override
+    public Integer visitIfStatement(MiniDecafParser.IfStatementContext ctx) {
+        if (evaluate(ctx.expression()) != 0)
+            evaluate(ctx.statement(0));
+        else if (ctx.statement().size() > 1)
+            evaluate(ctx.statement(1));
+        return null;
+    }
+
+    @Override
+    public Integer visitDefaultStatement(MiniDecafParser.DefaultStatementContext ctx) {
+        return evaluate(ctx.compound_statement());
+    }
+
+    @Override
+    public Integer visitForStatement(MiniDecafParser.ForStatementContext ctx) {
+        MiniDecafParser.ExpressionContext init = null;
+        MiniDecafParser.ExpressionContext ctrl = null;
+        MiniDecafParser.ExpressionContext post = null;
+        for (int i = 0; i < ctx.children.size(); ++i)
+            if (ctx.children.get(i) instanceof MiniDecafParser.ExpressionContext) {
+                if (ctx.children.get(i - 1).getText().equals("("))
+                    init = (MiniDecafParser.ExpressionContext) (ctx.children.get(i));
+                else if (ctx.children.get(i + 1).getText().equals(";"))
+                    ctrl = (MiniDecafParser.ExpressionContext) (ctx.children.get(i));
+                else
+                    post = (MiniDecafParser.ExpressionContext) (ctx.children.get(i));
+            }
+        scopes.push(new HashMap<>());
+        if (ctx.declaration() != null)
+            evaluate(ctx.declaration());
+        else if (init != null)
+            evaluate(init);
+        while (ctrl == null || evaluate(ctrl) != 0) {
+            if (loopBodyExits(ctx.statement()))
+                break;
+            if (post != null)
+                evaluate(post);
+        }
+        scopes.pop();
+        return null;
+    }
+
+    @Override
+    public Integer visitWhileStatement(MiniDecafParser.WhileStatementContext ctx) {
+        while (evaluate(ctx.expression()) != 0)
+            if (loopBodyExits(ctx.statement()))
+                break;
+        return null;
+    }
+
+    @Override
+    public Integer visitDoWhileStatement(MiniDecafParser.DoWhileStatementContext ctx) {
+        do {
+            if (loopBodyExits(ctx.statement()))
+                break;
+        } while (evaluate(ctx.expression()) != 0);
+        return null;
+    }
+
+    /**
+     * 执行一次循环体，返回是否因 break 或 return 离开循环。
+     */
+    private boolean loopBodyExits(MiniDecafParser.StatementContext body) {
+        evaluate(body);
+        Transfer result = transfer;
+        if (result != Transfer.RETURN)
+            transfer = Transfer.NONE;
+        return result == Transfer.BREAK || result == Transfer.RETURN;
+    }
+
+    @Override
+    public Integer visitSwitchStatement(MiniDecafParser.SwitchStatementContext ctx) {
+        int value = evaluate(ctx.expression());
+        var sections = ctx.switch_case();
+        int start = -1;
+        for (int i = 0; i < sections.size() && start < 0; ++i) {
+            var section = sections.get(i);
+            if (section.NUM() != null) {
+                long caseValue = literal(section.NUM());
+                if (section.getChild(1).getText().equals("-"))
+                    caseValue = -caseValue;
+                if (caseValue != (int) caseValue) // 代码生成会报告错误
+                    throw NOT_CONSTANT;
+                if (caseValue == value)
+                    start = i;
+            }
+        }
+        for (int i = 0; i < sections.size() && start < 0; ++i)
+            if (sections.get(i).NUM() == null)
+                start = i;
+        if (start >= 0) { // 从匹配的 case 开始依次执行，直到发生控制转移
+            scopes.push(new HashMap<>());
+            for (int i = start; i < sections.size() && transfer == Transfer.NONE; ++i)
+                visitBlockItems(sections.get(i).blockitem());
+            scopes.pop();
+        }
+        if (transfer == Transfer.BREAK)
+            transfer = Transfer.NONE;
+        return null;
+    }
+
+    @Override
+    public Integer visitBreakStatement(MiniDecafParser.BreakStatementContext ctx) {
+        transfer = Transfer.BREAK;
+        return null;
+    }
+
+    @Override
+    public Integer visitContinueStatement(MiniDecafParser.ContinueStatementContext ctx) {
+        transfer = Transfer.CONTINUE;
+        return null;
+    }
+
+    @Override
+    public Integer visitExpression(MiniDecafParser.ExpressionContext ctx) {
+        return evaluate(ctx.assignment());
+    }
+
+    @Override
+    public Integer visitAssignment(MiniDecafParser.AssignmentContext ctx) {
+        if (ctx.children.size() == 1)
+            return evaluate(ctx.conditional());
+        // 与生成的代码一样先计算左侧的地址
+        Integer[] cells = lvalue(ctx.unary());
+        int index = lvalueIndex;
+        int value = evaluate(ctx.expression());
+        cells[index] = value;
+        return value;
+    }
+
+    /**
+     * 求左值所在的存储，下标保存在 lvalueIndex 中。左值只能是标量变量或数组的元素。
+     */
+    private Integer[] lvalue(ParseTree tree) {
+        while (tree.getChildCount() == 1 && !(tree.getChild(0) instanceof TerminalNode))
+            tree = tree.getChild(0);
+        List<MiniDecafParser.ExpressionContext> subscripts = new ArrayList<>();
+        while (tree instanceof MiniDecafParser.ArrayPostfixContext) {
+            var postfix = (MiniDecafParser.ArrayPostfixContext) tree;
+            subscripts.add(0, postfix.expression());
+            tree = postfix.postfix();
+        }
+        if (tree instanceof MiniDecafParser.PrimaryPostfixContext)
+            tree = ((MiniDecafParser.PrimaryPostfixContext) tree).primary();
+        if (!(tree instanceof MiniDecafParser.IdentPrimaryContext))
+            throw NOT_CONSTANT;
+        Variable variable = lookup(tree.getText());
+        if (subscripts.size() != variable.dimensions.length) // 数组名或部分下标得到的是指针
+            throw NOT_CONSTANT;
+        // 与生成的代码一样先计算外层的下标
+        int index = 0;
+        for (int i = 0; i < subscripts.size(); ++i) {
+            int subscript = evaluate(subscripts.get(i));
+            if (subscript < 0 || subscript >= variable.dimensions[i])
+                throw NOT_CONSTANT;
+            index = index * variable.dimensions[i] + subscript;
+        }
+        lvalueIndex = index;
+        return variable.cells;
+    }
+
+    private Variable lookup(String name) {
+        for (Map<String, Variable> scope : scopes)
+            if (scope.containsKey(name))
+                return scope.get(name);
+        throw NOT_CONSTANT;
+    }
+
+    /**
+     * 读取左值的值。
+     */
+    private int load(ParseTree tree) {
+        Integer[] cells = lvalue(tree);
+        Integer value = cells[lvalueIndex];
+        if (value == null)
+            throw NOT_CONSTANT;
+        return value;
+    }
+
+    @Override
+    public Integer visitConditional(MiniDecafParser.ConditionalContext ctx) {
+        if (ctx.children.size() == 1)
+            return evaluate(ctx.logical_or());
+        return evaluate(ctx.logical_or()) != 0 ? evaluate(ctx.expression()) : evaluate(ctx.conditional());
+    }
+
+    @Override
+    public Integer visitLogical_or(MiniDecafParser.Logical_orContext ctx) {
+        if (ctx.children.size() == 1)
+            return evaluate(ctx.logical_and());
+        int left = evaluate(ctx.logical_or());
+        int right = evaluate(ctx.logical_and());
+        return left != 0 || right != 0 ? 1 : 0;
+    }
+
+    @Override
+    public Integer visitLogical_and(MiniDecafParser.Logical_andContext ctx) {
+        if (ctx.children.size() == 1)
+            return evaluate(ctx.equality());
+        int left = evaluate(ctx.logical_and());
+        int right = evaluate(ctx.equality());
+        return left != 0 && right != 0 ? 1 : 0;
+    }
+
+    @Override
+    public Integer visitEquality(MiniDecafParser.EqualityContext ctx) {
+        if (ctx.children.size() == 1)
+            return evaluate(ctx.relational());
+        int left = evaluate(ctx.equality());
+        int right = evaluate(ctx.relational());
+        return (left == right) == ctx.children.get(1).getText().equals("==") ? 1 : 0;
+    }
+
+    @Override
+    public Integer visitRelational(MiniDecafParser.RelationalContext ctx) {
+        if (ctx.children.size() == 1)
+            return evaluate(ctx.additive());
+        int left = evaluate(ctx.relational());
+        int right = evaluate(ctx.additive());
+        switch (ctx.children.get(1).getText()) {
+            case "<": return left < right ? 1 : 0;
+            case ">": return left > right ? 1 : 0;
+            case "<=": return left <= right ? 1 : 0;
+            default: return left >= right ? 1 : 0;
+        }
+    }
+
+    @Override
+    public Integer visitAdditive(MiniDecafParser.AdditiveContext ctx) {
+        if (ctx.children.size() == 1)
+            return evaluate(ctx.multiplicative());
+        int left = evaluate(ctx.additive());
+        int right = evaluate(ctx.multiplicative());
+        return ctx.children.get(1).getText().equals("+") ? left + right : left - right;
+    }
+
+    @Override
+    public Integer visitMultiplicative(MiniDecafParser.MultiplicativeContext ctx) {
+        if (ctx.children.size() == 1)
+            return evaluate(ctx.unary());
+        int left = evaluate(ctx.multiplicative());
+        int right = evaluate(ctx.unary());
+        switch (ctx.children.get(1).getText()) {
+            case "*": return left * right;
+            case "/": return right == 0 ? -1 : left / right; // 与 div 指令一致
+            default: return right == 0 ? left : left % right; // 与 rem 指令一致
+        }
+    }
+
+    @Override
+    public Integer visitOperatorUnary(MiniDecafParser.OperatorUnaryContext ctx) {
+        int value = evaluate(ctx.unary());
+        switch (ctx.children.get(0).getText()) {
+            case "-": return -value;
+            case "~": return ~value;
+            case "!": return value == 0 ? 1 : 0;
+            default: throw NOT_CONSTANT;
+        }
+    }
+
+    @Override
+    public Integer visitCastUnary(MiniDecafParser.CastUnaryContext ctx) {
+        throw NOT_CONSTANT;
+    }
+
+    @Override
+    public Integer visitPostfixUnary(MiniDecafParser.PostfixUnaryContext ctx) {
+        return evaluate(ctx.postfix());
+    }
+
+    @Override
+    public Integer visitArrayPostfix(MiniDecafParser.ArrayPostfixContext ctx) {
+        return load(ctx);
+    }
+
+    @Override
+    public Integer visitPrimaryPostfix(MiniDecafParser.PrimaryPostfixContext ctx) {
+        return evaluate(ctx.primary());
+    }
+
+    @Override
+    public Integer visitNumberPrimary(MiniDecafParser.NumberPrimaryContext ctx) {
+        long value = literal(ctx.NUM());
+        if (value >= Integer.MAX_VALUE) // 代码生成会报告错误
+            throw NOT_CONSTANT;
+        return (int) value;
+    }
+
+    /**
+     * 整数字面量的值。字面量可以任意长，超出 32 位时不能求值，由代码生成报告错误。
+     */
+    private static long literal(TerminalNode num) {
+        BigInteger value = new BigInteger(num.getText());
+        if (value.bitLength() > 32)
+            throw NOT_CONSTANT;
+        return value.longValue();
+    }
+
+    @Override
+    public Integer visitParenthesizedPrimary(MiniDecafParser.ParenthesizedPrimaryContext ctx) {
+        return evaluate(ctx.expression());
+    }
+
+    @Override
+    public Integer visitIdentPrimary(MiniDecafParser.IdentPrimaryContext ctx) {
+        return load(ctx);
+    }
+}
@@ -0,0 +1,328 @@
+package minidecaf;
+
+import java.util.*;
+
+/**
+ * 指令调度：在代码生成之后，对每个基本块内的指令做表调度（list scheduling）。
+ * 在保持寄存器依赖和访存顺序的前提下重排互不相关的指令，用其它指令填补访存和乘除法结果尚未可用时的停顿。
+ * <p>
+ * 基本块以标签、伪指令、注释和跳转类指令为界，跳转类指令留在块末。
+ * 访存的别名判断是保守的：以 sp 为基址的访存只能访问表达式求值栈，它不会被取地址，
+ * 因此与其它访存互不别名；基址寄存器相同且中间没有被改写时按偏移量判断；其余情况都视为可能别名。
+ * <p>
+ * 每个函数的标签之后以注释报告按机器模型估计的调度前后的停顿周期数。
+ */
+public final class Scheduler {
+    private static final Set<String> REGISTERS = new HashSet<>(Arrays.asList(
+            "zero", "ra", "sp", "gp", "tp", "fp",
+            "t0", "t1", "t2", "t3", "t4", "t5", "t6",
+            "s1", "s2", "s3", "s4", "s5", "s6", "s7", "s8", "s9", "s10", "s11",
+            "a0", "a1", "a2", "a3", "a4", "a5", "a6", "a7"));
+    private final MachineModel model;
+    private int stallsBefore; // 当前函数调度前后的停顿周期数
+    private int stallsAfter;
+
+    public Scheduler(MachineModel model) {
+        this.model = model;
+    }
+
+    /**
+     * 一条指令及其读写的寄存器和访存地址。
+     */
+    private final class Instruction {
+        final String text;
+        final String op;
+        final List<String> defs = new ArrayList<>();
+        final List<String> uses = new ArrayList<>();
+        final int latency;
+        final boolean load, store;
+        String base; // 访存的基址寄存器
+        String offset; // 偏移量，可能是 %lo(symbol) 这样的符号表达式
+        int baseVersion; // 基址寄存器在块中被改写过的次数
+        Integer stackOffset; // 以 sp 为基址时相对块开始时 sp 的地址，sp 的值未知时为 null
+        final List<Instruction> successors = new ArrayList<>();
+        final List<Integer> edgeLatencies = new ArrayList<>();
+        int predecessorCount;
+        int priority; // 到块末的最长路径
+        int earliest; // 所有前驱满足后最早的发射周期
+        int index; // 在块中原来的位置
+
+        Instruction(String text) {
+            this.text = text;
+            String body = text.trim();
+            int space = body.indexOf(' ');
+            op = space < 0 ? body : body.substring(0, space);
+            String[] operands = space < 0 ? new String[0] : body.substring(space + 1).split(",\\s*");
+            load = op.equals("lw");
+            store = op.equals("sw");
+            if (load || store) {
+                String address = operands[1];
+                int paren = address.lastIndexOf('(');
+                base = register(address.substring(paren + 1, address.length() - 1));
+                offset = paren == 0 ? "0" : address.substring(0, paren);
+                uses.add(base);
+                if (load)
+                    defs.add(register(operands[0]));
+                else
+                    uses.add(register(operands[0]));
+            } else
+                for (int i = 0; i < operands.length; ++i) {
+                    String register = register(operands[i]);
+                    if (register == null)
+                        continue;
+                    if (i == 0 && !isControl(op))
+                        defs.add(register);
+                    else
+                        uses.add(register);
+                }
+            if (load)
+                latency = model.load;
+            else if (op.startsWith("mul"))
+                latency = model.mul;
+            else if (op.startsWith("div") || op.startsWith("rem"))
+                latency = model.div;
+            else
+                latency = model.alu;
+        }
+    }
+
+    private static String register(String operand) {
+        operand = operand.trim();
+        if (operand.equals("s0"))
+            return "fp";
+        return REGISTERS.contains(operand) ? operand : null;
+    }
+
+    private static boolean isControl(String op) {
+        return op.startsWith("b") || op.equals("j") || op.equals("jr") || op.equals("jal") || op.equals("jalr")
+                || op.equals("call") || op.equals("tail") || op.equals("ret");
+    }
+
+    /**
+     * 调度整个汇编程序。
+     */
+    public String schedule(String code) {
+        List<String> lines = new ArrayList<>(Arrays.asList(code.split("\n", -1)));
+        List<String> output = new ArrayList<>();
+        List<Instruction> block = new ArrayList<>();
+        int reportIndex = -1; // 当前函数报告的插入位置
+        String previous = "";
+        for (String line : lines) {
+            boolean instruction = line.startsWith("\t") && !line.startsWith("\t.") && !line.startsWith("\t#")
+                    && !line.isBlank();
+            if (instruction) {
+                Instruction inst = new Instruction(line);
+                block.add(inst);
+                if (isControl(inst.op)) {
+                    output.addAll(scheduleBlock(block));
+                    block.clear();
+                }
+                previous = line;
+                continue;
+            }
+            output.addAll(scheduleBlock(block));
+            block.clear();
+            if (line.endsWith(":") && previous.equals("\t.global " + line.substring(0, line.length() - 1))) {
+                if (reportIndex >= 0)
+                    output.add(reportIndex, report());
+                stallsBefore = stallsAfter = 0;
+                output.add(line);
+                reportIndex = output.size();
+            } else
+                output.add(line);
+            previous = line;
+        }
+        output.addAll(scheduleBlock(block));
+        if (reportIndex >= 0)
+            output.add(reportIndex, report());
+        return String.join("\n", output);
+    }
+
+    private String report() {
+        return "\t# schedule: " + stallsBefore + " -> " + stallsAfter + " estimated stall cycles (" + model + ")";
+    }
+
+    /**
+     * 调度一个基本块。只有估计的停顿减少时才采用新的顺序。
+     */
+    private List<String> scheduleBlock(List<Instruction> block) {
+        List<String> result = new ArrayList<>();
+        if (block.isEmpty())
+            return result;
+        buildDependencies(block);
+        int before = stalls(block);
+        List<Instruction> order = listSchedule(block);
+        int after = stalls(order);
+        if (after >= before) {
+            order = block;
+            after = before;
+        }
+        stallsBefore += before;
+        stallsAfter += after;
+        for (Instruction inst : order)
+            result.add(inst.text);
+        return result;
+    }
+
+    /**
+     * 建立依赖图：寄存器的写后读、读后写、写后写，可能别名的访存之间的顺序，以及块末的跳转在所有指令之后。
+     * 改写 sp 的指令是不以 sp 为基址的访存的屏障：没有红区，访问栈帧的指令不能越过分配或释放栈空间的指令，
+     * 否则会访问 sp 之下的内存。
+     */
+    private void buildDependencies(List<Instruction> block) {
+        Map<String, Integer> versions = new HashMap<>();
+        Integer sp = 0; // 相对块开始时的 sp 偏移，未知时为 null
+        for (Instruction inst : block) {
+            if (inst.base != null) {
+                inst.baseVersion = versions.getOrDefault(inst.base, 0);
+                if (inst.base.equals("sp") && sp != null)
+                    inst.stackOffset = sp + Integer.parseInt(inst.offset);
+            }
+            for (String def : inst.defs) {
+                versions.merge(def, 1, Integer::sum);
+                if (def.equals("sp"))
+                    sp = inst.op.equals("addi") && inst.uses.equals(List.of("sp")) && sp != null
+                            ? sp + Integer.parseInt(inst.text.substring(inst.text.lastIndexOf(',') + 1).trim()) : null;
+            }
+        }
+        boolean framePointerChanged = versions.containsKey("fp");
+        Map<String, Instruction> lastDef = new HashMap<>();
+        Map<String, List<Instruction>> usesSinceDef = new HashMap<>();
+        List<Instruction> memoryAccesses = new ArrayList<>();
+        Instruction lastStackPointerWrite = null;
+        List<Instruction> accessesSinceStackPointerWrite = new ArrayList<>(); // 之后不以 sp 为基址的访存
+        for (int j = 0; j < block.size(); ++j) {
+            Instruction inst = block.get(j);
+            inst.index = j;
+            for (String use : inst.uses)
+                if (lastDef.containsKey(use))
+                    addEdge(lastDef.get(use), inst, lastDef.get(use).latency); // 写后读
+            for (String def : inst.defs) {
+                for (Instruction user : usesSinceDef.getOrDefault(def, List.of()))
+                    addEdge(user, inst, 1); // 读后写
+                if (lastDef.containsKey(def))
+                    addEdge(lastDef.get(def), inst, 1); // 写后写
+            }
+            if (inst.load || inst.store) {
+                for (Instruction earlier : memoryAccesses)
+                    if ((earlier.store || inst.store) && mayAlias(earlier, inst, framePointerChanged))
+                        addEdge(earlier, inst, 1);
+                memoryAccesses.add(inst);
+                if (!inst.base.equals("sp")) {
+                    if (lastStackPointerWrite != null)
+                        addEdge(lastStackPointerWrite, inst, 1);
+                    accessesSinceStackPointerWrite.add(inst);
+                }
+            }
+            if (inst.defs.contains("sp")) {
+                for (Instruction access : accessesSinceStackPointerWrite)
+                    addEdge(access, inst, 1);
+                accessesSinceStackPointerWrite.clear();
+                lastStackPointerWrite = inst;
+            }
+            if (isControl(inst.op))
+                for (int i = 0; i < j; ++i)
+                    addEdge(block.get(i), inst, 1);
+            for (String use : inst.uses)
+                usesSinceDef.computeIfAbsent(use, k -> new ArrayList<>()).add(inst);
+            for (String def : inst.defs) {
+                lastDef.put(def, inst);
+                usesSinceDef.put(def, new ArrayList<>());
+            }
+        }
+        for (int i = block.size() - 1; i >= 0; --i) {
+            Instruction inst = block.get(i);
+            inst.priority = inst.latency;
+            for (int k = 0; k < inst.successors.size(); ++k)
+                inst.priority = Math.max(inst.priority, inst.edgeLatencies.get(k) + inst.successors.get(k).priority);
+        }
+    }
+
+    private static void addEdge(Instruction from, Instruction to, int latency) {
+        from.successors.add(to);
+        from.edgeLatencies.add(latency);
+        to.predecessorCount++;
+    }
+
+    /**
+     * 判断两次访存是否可能访问同一地址。
+     *
+     * @param framePointerChanged 块中是否改写过 fp，此时 fp 可能指向求值栈
+     */
+    private static boolean mayAlias(Instruction a, Instruction b, boolean framePointerChanged) {
+        boolean stackA = a.base.equals("sp"), stackB = b.base.equals("sp");
+        if (stackA && stackB && a.stackOffset != null && b.stackOffset != null)
+            return a.stackOffset.equals(b.stackOffset);
+        if (stackA != stackB && !framePointerChanged) // 求值栈不会被取地址
+            return false;
+        if (a.base.equals(b.base) && a.baseVersion == b.baseVersion)
+            return a.offset.equals(b.offset);
+        return true;
+    }
+
+    /**
+     * 表调度：每个周期在前驱都已发射、操作数已经可用的指令中选择到块末路径最长的一条，
+     * 没有这样的指令时选择最早可以发射的一条。
+     */
+    private List<Instruction> listSchedule(List<Instruction> block) {
+        List<Instruction> order = new ArrayList<>();
+        List<Instruction> ready = new ArrayList<>();
+        Map<Instruction, Integer> remaining = new HashMap<>();
+        for (Instruction inst : block) {
+            remaining.put(inst, inst.predecessorCount);
+            inst.earliest = 0;
+            if (inst.predecessorCount == 0)
+                ready.add(inst);
+        }
+        int cycle = 0;
+        while (!ready.isEmpty()) {
+            Instruction best = null;
+            for (Instruction inst : ready) {
+                if (best == null) {
+                    best = inst;
+                    continue;
+                }
+                boolean available = inst.earliest <= cycle, bestAvailable = best.earliest <= cycle;
+                if (available != bestAvailable) {
+                    if (available)
+                        best = inst;
+                } else if (available ? inst.priority > best.priority
+                        : inst.earliest < best.earliest || (inst.earliest == best.earliest && inst.priority > best.priority))
+                    best = inst;
+                else if (inst.priority == best.priority && inst.earliest == best.earliest
+                        && inst.index < best.index)
+                    best = inst; // 其它条件相同时保持原来的顺序
+            }
+            ready.remove(best);
+            order.add(best);
+            int issue = Math.max(cycle, best.earliest);
+            cycle = issue + 1;
+            for (int k = 0; k < best.successors.size(); ++k) {
+                Instruction successor = best.successors.get(k);
+                successor.earliest = Math.max(successor.earliest, issue + best.edgeLatencies.get(k));
+                remaining.merge(successor, -1, Integer::sum);
+                if (remaining.get(successor) == 0)
+                    ready.add(successor);
+            }
+        }
+        return order;
+    }
+
+    /**
+     * 按机器模型估计顺序发射一串指令时的停顿周期数，块外定义的寄存器视为已经可用。
+     */
+    private static int stalls(List<Instruction> order) {
+        Map<String, Integer> readyCycle = new HashMap<>();
+        int cycle = 0, stalls = 0;
+        for (Instruction inst : order) {
+            int issue = cycle;
+            for (String use : inst.uses)
+                issue = Math.max(issue, readyCycle.getOrDefault(use, 0));
+            stalls += issue - cycle;
+            for (String def : inst.defs)
+                readyCycle.put(def, issue + inst.latency);
+            cycle = issue + 1;
+        }
+        return stalls;
+    }
+}
@@ -5,16 +5,45 @@ public class Symbol {
 
     public final int offset;
 
+    public final String register; // 存放该变量的寄存器，为 null 时变量位于栈上偏移量为 offset 的位置
+
     public final Type type;
 
+    public final boolean live; // 变量的值是否可能被读取，为 false 时变量没有存储空间，对它的赋值会被删除
+
     public Symbol(String name, int offset, Type type) {
         this.name = name;
         this.offset = offset;
+        this.register = null;
+        this.type = type;
+        this.live = true;
+    }
+
+    public Symbol(String name, String register, Type type) {
+        this.name = name;
+        this.offset = 0;
+        this.register = register;
         this.type = type;
+        this.live = true;
+    }
+
+    private Symbol(String name, Type type) {
+        this.name = name;
+        this.offset = 0;
+        this.register = null;
+        this.type = type;
+        this.live = false;
+    }
+
+    /**
+     * 创建一个值从不被读取的变量，它不占用存储空间。
+     */
+    public static Symbol dead(String name, Type type) {
+        return new Symbol(name, type);
     }
 
     @Override
     public String toString() {
-        return name + "@" + type + ":" + offset;
+        return name + "@" + type + ":" + (!live ? "dead" : register != null ? register : offset);
     }
 }
@@ -0,0 +1,273 @@
+package minidecaf;
+
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.misc.Pair;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * 表驱动的词法分析器：与 ANTLR 生成的 {@link MiniDecafLexer} 得到相同的词法单元序列，可以直接交给 CommonTokenStream。
+ * <p>
+ * MiniDecaf 的词法很简单，这里直接扫描源文件的字节：用字符类别表区分标识符、数字、空白和运算符，
+ * 运算符用以首字符（和第二个字符）为下标的表查出词法单元类型，关键字在同长度的关键字中逐字节比较。
+ * 词法单元只记录位置，文本在用到时才从字节中取出。词法单元的类型由 MiniDecafLexer 的词汇表得到，
+ * 因此文法中增删关键字和运算符时不需要修改这里。
+ * <p>
+ * 与 ANTLR 一样，起止下标和列号按 Unicode 码位计算（非 ASCII 字符只能出现在注释中），
+ * 遇到不能识别的字符时报告 token recognition error 并跳过它。
+ */
+public final class TableLexer implements TokenSource {
+    private static final byte OTHER = 0, LETTER = 1, DIGIT = 2, SPACE = 3;
+    private static final byte[] CLASSES = new byte[128]; // ASCII 字符的类别
+    private static final int[] SINGLE = new int[128]; // 单字符运算符 -> 词法单元类型，0 表示不是运算符
+    private static final int[] DOUBLE = new int[128 * 128]; // 双字符运算符 -> 词法单元类型
+    private static final boolean[] PREFIX = new boolean[128]; // 是否是双字符运算符的首字符
+    private static final byte[][][] KEYWORDS = new byte[128][][]; // 首字母 -> 以它开头的关键字
+    private static final int[][] KEYWORD_TYPES = new int[128][];
+
+    static {
+        for (int c = 0; c < 128; ++c)
+            CLASSES[c] = Character.isLetter(c) || c == '_' ? LETTER : Character.isDigit(c) ? DIGIT
+                    : c == ' ' || c == '\t' || c == '\r' || c == '\n' || c == '\f' ? SPACE : OTHER;
+        Vocabulary vocabulary = MiniDecafLexer.VOCABULARY;
+        Map<Character, List<String>> keywords = new TreeMap<>();
+        Map<String, Integer> keywordTypes = new HashMap<>();
+        for (int type = 1; type <= vocabulary.getMaxTokenType(); ++type) {
+            String literal = vocabulary.getLiteralName(type);
+            if (literal == null)
+                continue;
+            literal = literal.substring(1, literal.length() - 1);
+            if (CLASSES[literal.charAt(0)] == LETTER) {
+                keywords.computeIfAbsent(literal.charAt(0), k -> new ArrayList<>()).add(literal);
+                keywordTypes.put(literal, type);
+            } else if (literal.length() == 1)
+                SINGLE[literal.charAt(0)] = type;
+            else if (literal.length() == 2) {
+                DOUBLE[literal.charAt(0) * 128 + literal.charAt(1)] = type;
+                PREFIX[literal.charAt(0)] = true;
+            } else
+                throw new IllegalStateException("unsupported literal " + literal);
+        }
+        for (var entry : keywords.entrySet()) {
+            List<String> list = entry.getValue();
+            KEYWORDS[entry.getKey()] = new byte[list.size()][];
+            KEYWORD_TYPES[entry.getKey()] = new int[list.size()];
+            for (int i = 0; i < list.size(); ++i) {
+                KEYWORDS[entry.getKey()][i] = list.get(i).getBytes(StandardCharsets.US_ASCII);
+                KEYWORD_TYPES[entry.getKey()][i] = keywordTypes.get(list.get(i));
+            }
+        }
+    }
+
+    private final byte[] input;
+    private final String sourceName;
+    private final Pair<TokenSource, CharStream> source;
+    private TokenFactory<?> tokenFactory = CommonTokenFactory.DEFAULT;
+    private int position; // 下一个字节的下标
+    private int continuationBytes; // 已扫过的 UTF-8 后续字节数，字节下标减去它就是码位下标
+    private int line = 1;
+    private int lineStart; // 当前行第一个字符的码位下标
+
+    /**
+     * 延迟取出文本的词法单元。
+     */
+    private final class TableToken extends CommonToken {
+        private final int byteStart, byteStop;
+
+        TableToken(int type, int byteStart, int byteStop, int start, int stop) {
+            super(TableLexer.this.source, type, DEFAULT_CHANNEL, start, stop);
+            this.byteStart = byteStart;
+            this.byteStop = byteStop;
+        }
+
+        @Override
+        public String getText() {
+            if (text == null)
+                text = type == EOF ? "<EOF>" : new String(input, byteStart, byteStop - byteStart + 1, StandardCharsets.UTF_8);
+            return text;
+        }
+    }
+
+    public TableLexer(byte[] input, String sourceName) {
+        this.input = input;
+        this.sourceName = sourceName;
+        this.source = new Pair<>(this, null);
+    }
+
+    public static TableLexer fromFileName(String file) throws IOException {
+        return new TableLexer(Files.readAllBytes(Path.of(file)), file);
+    }
+
+    @Override
+    public Token nextToken() {
+        while (true) {
+            int start = position;
+            if (start == input.length)
+                return token(Token.EOF, start, start - 1);
+            int c = input[start] & 0xff;
+            if (c >= 128) { // 注释之外的非 ASCII 字符
+                skipCharacters(1);
+                continue;
+            }
+            switch (CLASSES[c]) {
+                case SPACE:
+                    if (c == '\n') {
+                        ++line;
+                        lineStart = start + 1 - continuationBytes;
+                    }
+                    ++position;
+                    continue;
+                case LETTER:
+                    do
+                        ++position;
+                    while (position < input.length && input[position] >= 0
+                            && (CLASSES[input[position]] == LETTER || CLASSES[input[position]] == DIGIT));
+                    return token(keyword(start, position), start, position - 1);
+                case DIGIT:
+                    do
+                        ++position;
+                    while (position < input.length && input[position] >= 0 && CLASSES[input[position]] == DIGIT);
+                    return token(MiniDecafLexer.NUM, start, position - 1);
+                default:
+                    if (c == '/' && start + 1 < input.length && (input[start + 1] == '*' || input[start + 1] == '/')
+                            && skipComment())
+                        continue;
+                    int next = start + 1 < input.length && input[start + 1] >= 0 ? input[start + 1] : 0;
+                    if (DOUBLE[c * 128 + next] != 0) {
+                        position += 2;
+                        return token(DOUBLE[c * 128 + next], start, start + 1);
+                    }
+                    if (SINGLE[c] != 0) {
+                        position += 1;
+                        return token(SINGLE[c], start, start);
+                    }
+                    // 与 ANTLR 一样，只匹配了双字符运算符的首字符时，出错的文本包括之后的一个字符
+                    skipCharacters(PREFIX[c] && start + 1 < input.length ? 2 : 1);
+            }
+        }
+    }
+
+    /**
+     * 标识符是关键字时返回关键字的类型，否则返回 IDENT。
+     */
+    private int keyword(int start, int end) {
+        byte[][] candidates = KEYWORDS[input[start]];
+        if (candidates != null)
+            for (int i = 0; i < candidates.length; ++i)
+                if (candidates[i].length == end - start
+                        && Arrays.equals(candidates[i], 0, candidates[i].length, input, start, end))
+                    return KEYWORD_TYPES[input[start]][i];
+        return MiniDecafLexer.IDENT;
+    }
+
+    /**
+     * 跳过从当前位置开始的注释。没有结束的块注释不是注释（此时 / 是一个运算符），返回 false。
+     */
+    private boolean skipComment() {
+        int end = position + 2;
+        if (input[position + 1] == '/') {
+            while (end < input.length && input[end] != '\r' && input[end] != '\n')
+                ++end;
+        } else {
+            while (end + 1 < input.length && !(input[end] == '*' && input[end + 1] == '/'))
+                ++end;
+            if (end + 1 >= input.length)
+                return false;
+            end += 2;
+        }
+        for (int i = position; i < end; ++i) {
+            if ((input[i] & 0xc0) == 0x80)
+                ++continuationBytes;
+            else if (input[i] == '\n') {
+                ++line;
+                lineStart = i + 1 - continuationBytes;
+            }
+        }
+        position = end;
+        return true;
+    }
+
+    /**
+     * 报告不能识别的字符并跳过它们。
+     */
+    private void skipCharacters(int characters) {
+        int start = position;
+        String message = "line " + line + ":" + (start - continuationBytes - lineStart) + " token recognition error at: '";
+        for (int i = 0; i < characters && position < input.length; ++i) {
+            if (input[position] == '\n') {
+                ++line;
+                lineStart = position + 1 - continuationBytes;
+            }
+            ++position;
+            while (position < input.length && (input[position] & 0xc0) == 0x80) {
+                ++position;
+                ++continuationBytes;
+            }
+        }
+        String text = new String(input, start, position - start, StandardCharsets.UTF_8);
+        System.err.println(message + text.replace("\n", "\\n").replace("\r", "\\r").replace("\t", "\\t") + "'");
+    }
+
+    private Token token(int type, int byteStart, int byteStop) {
+        int start = byteStart - continuationBytes;
+        TableToken token = new TableToken(type, byteStart, byteStop, start, start + byteStop - byteStart);
+        token.setLine(line);
+        token.setCharPositionInLine(start - lineStart);
+        return token;
+    }
+
+    @Override
+    public int getLine() {
+        return line;
+    }
+
+    @Override
+    public int getCharPositionInLine() {
+        return position - continuationBytes - lineStart;
+    }
+
+    @Override
+    public CharStream getInputStream() {
+        return null;
+    }
+
+    @Override
+    public String getSourceName() {
+        return sourceName;
+    }
+
+    @Override
+    public void setTokenFactory(TokenFactory<?> factory) {
+        tokenFactory = factory;
+    }
+
+    @Override
+    public TokenFactory<?> getTokenFactory() {
+        return tokenFactory;
+    }
+
+    /**
+     * 比较两个词法分析器得到的词法单元序列，返回第一处不同的描述，完全相同时返回 null。
+     */
+    public static String compare(TokenSource expected, TokenSource actual) {
+        while (true) {
+            Token a = expected.nextToken(), b = actual.nextToken();
+            if (a.getType() != b.getType() || a.getChannel() != b.getChannel() || !a.getText().equals(b.getText())
+                    || a.getLine() != b.getLine() || a.getCharPositionInLine() != b.getCharPositionInLine()
+                    || a.getStartIndex() != b.getStartIndex() || a.getStopIndex() != b.getStopIndex())
+                return "lexer mismatch at " + a.getLine() + ":" + a.getCharPositionInLine()
+                        + ": expected " + describe(a) + ", got " + describe(b);
+            if (a.getType() == Token.EOF)
+                return null;
+        }
+    }
+
+    private static String describe(Token token) {
+        return "'" + token.getText() + "' (type " + token.getType() + ", " + token.getLine() + ":"
+                + token.getCharPositionInLine() + ", " + token.getStartIndex() + ".." + token.getStopIndex() + ")";
+    }
+}
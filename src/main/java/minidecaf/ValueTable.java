@@ -0,0 +1,167 @@
+package minidecaf;
+
+import java.util.*;
+
+/**
+ * 值编号表：记录已经求过值的纯表达式（地址计算和访存），复用时从临时寄存器 t3-t6 中直接取出。
+ * 表达式以值编号标识，值编号相同的表达式在中间没有写入其操作数时求得的值相同。
+ * <p>
+ * 每个值记录它依赖的寄存器变量（如 "s1"）、栈帧地址（"&fp..."）和它读取的内存类别（如 "mem:int"）。
+ * 写寄存器变量时使依赖它的值失效；写内存时使读取了可能别名的内存类别的值失效；函数调用会改写
+ * 临时寄存器和任意内存，因此使所有值失效。
+ * <p>
+ * 值求出时并不立即复制到寄存器，只记下求值的位置，第一次被复用时才在该位置补上 mv 指令，
+ * 这样从未被复用的值不会带来额外开销。
+ * <p>
+ * 循环不变量在循环的前置块中求出，放在被调用者保存寄存器中，整个循环期间都可用。
+ * 它们被固定在表中，不受失效和清空的影响，直到离开循环时才移除。
+ */
+final class ValueTable {
+    private static final String[] REGISTERS = {"t3", "t4", "t5", "t6"}; // 调用者保存，栈式代码生成不会用到
+    private Map<String, Value> values = new LinkedHashMap<>(); // 值编号 -> 值，按最近使用的先后排列
+    private final List<Value> created = new ArrayList<>(); // 当前函数中登记过的所有值，插入代码时需要修正它们的位置
+    private final Map<String, Value> pinned = new HashMap<>(); // 当前位置所在各层循环的循环不变量
+
+    /**
+     * 一个纯表达式的值编号及其结果类型、依赖。
+     */
+    static final class Value {
+        final String key;
+        final Type type;
+        final Set<String> dependencies;
+        String register; // 保存该值的寄存器
+        String source; // 求值结束时该值所在的寄存器
+        int position = -1; // 求值结束时在汇编代码中的位置
+        boolean materialized; // 是否已经在 position 处复制到 register 中
+
+        Value(String key, Type type, Set<String> dependencies) {
+            this.key = key;
+            this.type = type;
+            this.dependencies = dependencies;
+        }
+    }
+
+    /**
+     * 查询值编号对应的值，找不到时返回 null。
+     */
+    Value lookup(String key) {
+        Value invariant = pinned.get(key);
+        if (invariant != null)
+            return invariant;
+        Value value = values.remove(key);
+        if (value != null)
+            values.put(key, value);
+        return value;
+    }
+
+    /**
+     * 登记一个刚求出的值，为它分配寄存器。寄存器都被占用时替换最久未使用的值。
+     *
+     * @param position 求值结束时在汇编代码中的位置
+     * @param source   求值结束时该值所在的寄存器
+     */
+    void add(Value value, int position, String source) {
+        values.remove(value.key);
+        Set<String> used = new HashSet<>();
+        for (Value v : values.values())
+            used.add(v.register);
+        String register = null;
+        for (String r : REGISTERS)
+            if (!used.contains(r)) {
+                register = r;
+                break;
+            }
+        if (register == null) {
+            Value oldest = values.values().iterator().next();
+            values.remove(oldest.key);
+            register = oldest.register;
+        }
+        value.register = register;
+        value.source = source;
+        value.position = position;
+        values.put(value.key, value);
+        created.add(value);
+    }
+
+    /**
+     * 固定一个已经在寄存器中求出的循环不变量。
+     */
+    void pin(Value value, String register) {
+        value.register = register;
+        value.materialized = true;
+        pinned.put(value.key, value);
+    }
+
+    void unpin(Value value) {
+        pinned.remove(value.key);
+    }
+
+    /**
+     * 查询固定的循环不变量，找不到时返回 null。
+     */
+    Value invariant(String key) {
+        return pinned.get(key);
+    }
+
+    boolean hasInvariants() {
+        return !pinned.isEmpty();
+    }
+
+    /**
+     * 在 position 处插入了 length 个字符，修正之后的值的位置。
+     */
+    void shift(int position, int length) {
+        for (Value v : created)
+            if (v.position > position)
+                v.position += length;
+    }
+
+    /**
+     * 从 position 开始的代码被删除，在其中求出的值随之失效。
+     */
+    void truncate(int position) {
+        values.values().removeIf(v -> v.position >= position);
+    }
+
+    /**
+     * 某个寄存器变量、栈帧地址或某类内存被写入，使依赖它的值失效。
+     */
+    void kill(String dependency) {
+        values.values().removeIf(v -> v.dependencies.contains(dependency));
+    }
+
+    void clear() {
+        values.clear();
+    }
+
+    /**
+     * 开始生成一个新函数的代码。
+     */
+    void reset() {
+        values.clear();
+        pinned.clear();
+        created.clear();
+    }
+
+    /**
+     * 保存当前状态，用于分支开始时恢复支配它的位置上的状态。
+     */
+    Map<String, Value> save() {
+        return new LinkedHashMap<>(values);
+    }
+
+    void restore(Map<String, Value> saved) {
+        values = new LinkedHashMap<>(saved);
+    }
+
+    /**
+     * 控制流汇合处只保留在所有前驱中都可用的值，它们必然来自支配汇合处的位置。
+     */
+    static Map<String, Value> merge(Map<String, Value> a, Map<String, Value> b) {
+        Map<String, Value> result = new LinkedHashMap<>();
+        for (Value v : a.values())
+            if (b.get(v.key) == v)
+                result.put(v.key, v);
+        return result;
+    }
+}
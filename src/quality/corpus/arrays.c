@@ -0,0 +1,16 @@
+int ga[4][5];
+int main() {
+    int a[3][4];
+    for (int i = 0; i < 3; i = i + 1)
+        for (int j = 0; j < 4; j = j + 1)
+            a[i][j] = i * 4 + j;
+    for (int i = 0; i < 4; i = i + 1)
+        for (int j = 0; j < 5; j = j + 1)
+            ga[i][j] = i + j;
+    int s = 0;
+    for (int i = 0; i < 3; i = i + 1)
+        for (int j = 0; j < 4; j = j + 1)
+            s = s + a[i][j] * ga[i][j];
+    int *p = (int *) a;
+    return s + p[5];
+}
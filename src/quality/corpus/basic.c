@@ -0,0 +1 @@
+int main() { int a = 3; int b = 4; return a * b + 2 - 1; }
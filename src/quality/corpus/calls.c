@@ -0,0 +1,13 @@
+int add(int a, int b) { return a + b; }
+int sum10(int a, int b, int c, int d, int e, int f, int g, int h, int i, int j) {
+    return a + 2 * b + 3 * c + 4 * d + 5 * e + 6 * f + 7 * g + 8 * h + 9 * i + 10 * j;
+}
+int fib(int n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); }
+int main() {
+    int x = add(add(1, 2), add(3, 4));
+    int y = add(5, add(6, 7));
+    int z = sum10(1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
+    int w = sum10(add(1, 0), 2, add(1, 2), 4, 5, add(3, 3), 7, 8, add(4, 5), add(5, 5));
+    int v = sum10(1, 2, 3, 4, 5, 6, 7, 8, sum10(1, 1, 1, 1, 1, 1, 1, 1, 1, 1), 10);
+    return (x + y + z + w + v + fib(10)) % 256;
+}
@@ -0,0 +1,32 @@
+int g;
+int h[4];
+int touch(int *p) { *p = *p + 100; return 0; }
+int main() {
+    int a[3][3];
+    int b[3][3];
+    int i; int j; int s = 0;
+    for (i = 0; i < 3; i = i + 1)
+        for (j = 0; j < 3; j = j + 1) { a[i][j] = i + j; b[i][j] = i * j; }
+    i = 1; j = 2;
+    a[i][j] = a[i][j] + b[i][j];
+    s = s + a[i][j] * 10;
+    int *p = &a[1][2];
+    s = s + a[i][j];
+    *p = 7;
+    s = s + a[i][j];
+    touch(&a[i][j]);
+    s = s + a[i][j];
+    g = 5; h[2] = 3;
+    s = s + g + h[2] + g;
+    if (s > 10) { h[2] = h[2] + 1; s = s + h[2]; } else { s = s - h[2]; }
+    s = s + h[2];
+    s = s > 0 ? s + h[2] : h[2];
+    { int x = 4; int *q = &x; s = s + x + *q; }
+    { int *y = &g; int **r = &y; **r = 2; s = s + *y; }
+    int k = (int) a[1][1];
+    s = s + k + a[1][1];
+    int *pp = (int *) a;
+    pp[4] = 9;
+    s = s + a[1][1];
+    return s % 256;
+}
@@ -0,0 +1,49 @@
+int N = 10;
+int SCALE = 3;
+int zero;
+int counter;
+int hist[16];
+int table[4][4];
+int *nullp;
+int big = 4294967295;
+int aliased = 7;
+int arr2[8];
+
+int bump(int k) {
+    counter = counter + k;
+    return counter;
+}
+
+int fill() {
+    for (int i = 0; i < 16; i = i + 1)
+        hist[i] = i * SCALE + zero;
+    return 0;
+}
+
+int sum() {
+    int s = 0;
+    for (int i = 0; i < 16; i = i + 1)
+        s = s + hist[i] + table[i % 4][i / 4];
+    return s;
+}
+
+int shadow(int N) { return N * 2; }
+
+int viaPointer() {
+    int *p = &aliased;
+    *p = *p + 1;
+    int *q = &arr2[0];
+    q[3] = 5;
+    return aliased + arr2[3];
+}
+
+int main() {
+    fill();
+    int r = sum();
+    for (int i = 0; i < N; i = i + 1)
+        bump(i);
+    r = r + counter + shadow(4) + big + ((int) nullp == 0) + viaPointer();
+    int zero = 5;
+    zero = zero + 1;
+    return (r + zero) % 256;
+}
@@ -0,0 +1,27 @@
+/* 词法检查：块注释、行注释、非 ASCII 字符和所有运算符 */
+int g_count = 0; // 行注释 ünïcödé
+int _under_score1;
+
+int ops(int a, int b) {
+    int r = 0;
+    r = r + (a == b) + (a != b) + (a < b) + (a > b) + (a <= b) + (a >= b);
+    r = r + (a && b) + (a || b) + !a + ~b + -a;
+    r = r + a * b - a / (b + 1) + a % (b + 1);
+    r = a > b ? r : r + 1; /* 多行
+                              块注释 */
+    return r;
+}
+
+int main() {
+    int arr[3];
+    int *p = &arr[0];
+    *p = 7;
+    p[1] = (int) 2;
+    arr[2] = ops(arr[0], arr[1]);
+    int i = 0;
+    while (i < 3) { g_count = g_count + arr[i]; i = i + 1; }
+    do { i = i - 1; } while (i > 0);
+    for (i = 0; i < 2; i = i + 1) { if (i == 1) break; else continue; }
+    switch (g_count) { case -1: return 1; case 0: return 2; default: break; }
+    return g_count % 256;
+}
@@ -0,0 +1,9 @@
+int main() {
+    int s = 0;
+    int i = 0;
+    while (i < 10) { i = i + 1; if (i % 2 == 0) continue; s = s + i; if (i > 7) break; }
+    do { s = s + 1; i = i - 1; } while (i > 5);
+    for (;;) { s = s + 1; if (s > 40) break; }
+    for (i = 0; i < 5; i = i + 1) s = s + i;
+    return s;
+}
@@ -0,0 +1,16 @@
+int A[8][8];
+int B[8][8];
+int C[8][8];
+int main() {
+    for (int i = 0; i < 8; i = i + 1)
+        for (int j = 0; j < 8; j = j + 1) { A[i][j] = i + j; B[i][j] = i - j; }
+    for (int i = 0; i < 8; i = i + 1)
+        for (int j = 0; j < 8; j = j + 1) {
+            int s = 0;
+            for (int k = 0; k < 8; k = k + 1) s = s + A[i][k] * B[k][j];
+            C[i][j] = s;
+        }
+    int t = 0;
+    for (int i = 0; i < 8; i = i + 1) t = t + C[i][i] + C[i][7 - i];
+    return t % 256;
+}
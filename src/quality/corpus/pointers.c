@@ -0,0 +1,15 @@
+int g;
+int h = 5;
+int set(int *p, int v) { *p = v; return 0; }
+int main() {
+    int a = 1;
+    int *p = &a;
+    *p = 10;
+    set(&a, a + 1);
+    set(&g, 3);
+    int **pp = &p;
+    **pp = **pp + h;
+    int b = 2;
+    int *q = &b;
+    return a * 10 + g + *q + h;
+}
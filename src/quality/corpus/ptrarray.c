@@ -0,0 +1,22 @@
+int main() {
+    int x = 1;
+    int *ptrs[1];
+    int s = 0;
+    int i = 0;
+    int n = 3;
+    ptrs[0] = &x;
+    while (i < n) {
+        s = s + x * 7;
+        ptrs[0][0] = x + 1;
+        i = i + 1;
+    }
+    int k = 0;
+    while (k < n) {
+        int *inner[2];
+        inner[1] = &x;
+        s = s + x * 3;
+        inner[1][0] = x + 2;
+        k = k + 1;
+    }
+    return s;
+}
@@ -0,0 +1,63 @@
+int g = 5;
+
+int fib(int n) {
+    if (n < 2) return n;
+    return fib(n - 1) + fib(n - 2);
+}
+
+int pow2(int k) {
+    int r = 1;
+    for (int i = 0; i < k; i = i + 1) r = r * 2;
+    return r;
+}
+
+int mask(int bits) { return pow2(bits) - 1; }
+
+int table(int n) {
+    int t[10][10];
+    for (int i = 0; i < 10; i = i + 1)
+        for (int j = 0; j < 10; j = j + 1)
+            t[i][j] = i * j;
+    int s = 0;
+    int k = 0;
+    while (k < 10) {
+        if (k == n) { k = k + 1; continue; }
+        s = s + t[k][n % 10];
+        k = k + 1;
+    }
+    switch (n) {
+    case 3: s = s + 1000; break;
+    default: s = s + 1;
+    }
+    return s;
+}
+
+int readsGlobal(int x) { return x + g; }
+
+int forever(int x) {
+    while (x > 0) x = x + 1 - 1;
+    return x;
+}
+
+int divz(int a, int b) { return a / b + a % b; }
+
+int oob(int i) { int a[3]; a[0] = 1; a[1] = 2; a[2] = 3; return a[i]; }
+
+
+int deep(int n) { if (n == 0) return 0; return 1 + deep(n - 1); }
+
+
+int main() {
+    int r = 0;
+    r = r + fib(20) % 97;
+    r = r + pow2(5) + mask(8) % 50;
+    r = r + table(3) % 100 + table(7) % 100;
+    g = 6;
+    r = r + readsGlobal(1);
+    r = r + forever(0);
+    r = r + divz(-7, 2) + divz(7, -1);
+    r = r + oob(2);
+    r = r + deep(50) + deep(99) + deep(1000) % 7;
+    r = r + fib(fib(5)) + fib(r % 3);
+    return r % 256;
+}
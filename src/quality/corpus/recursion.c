@@ -0,0 +1,7 @@
+int gcd(int a, int b) { if (b == 0) return a; return gcd(b, a % b); }
+int ack(int m, int n) {
+    if (m == 0) return n + 1;
+    if (n == 0) return ack(m - 1, 1);
+    return ack(m - 1, ack(m, n - 1));
+}
+int main() { return gcd(1071, 462) + ack(2, 3); }
@@ -0,0 +1,11 @@
+int f(int a, int b, int c, int d, int e, int f, int g, int h, int i, int j, int k, int l, int m, int n) {
+    int *p = &c;
+    *p = *p + 1;
+    return a - b + c * d - e + f * g - h + i * j - k + l * m - n;
+}
+int g(int x) { int *q = &x; *q = *q * 2; return x + f(x, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14); }
+int main() {
+    int r = f(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14);
+    int s = f(g(1), g(2), 3, 4, 5, 6, 7, 8, 9, g(3), 11, 12, 13, g(4));
+    return (r + s) % 256;
+}
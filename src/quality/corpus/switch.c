@@ -0,0 +1,74 @@
+int dense(int x) {
+    int r = 0;
+    switch (x) {
+    case 0: r = 10; break;
+    case 1: r = 11;
+    case 2: r = r + 12; break;
+    case 4: return 44;
+    case 5:
+    case 3: r = 33; break;
+    default: r = -1;
+    }
+    return r;
+}
+
+int sparse(int x) {
+    switch (x) {
+    case -100: return 1;
+    case 7: return 2;
+    case 1000: return 3;
+    case 20000: return 4;
+    case 123456: return 5;
+    case -5: return 6;
+    case 64: return 7;
+    default: return 0;
+    }
+}
+
+int nodefault(int x) {
+    int r = 5;
+    switch (x) { case 1: r = 6; break; case 2: r = 7; }
+    switch (x) { }
+    switch (x) { default: r = r + 1; }
+    return r;
+}
+
+int loops(int n) {
+    int s = 0;
+    for (int i = 0; i < n; i = i + 1) {
+        switch (i % 4) {
+        case 0: continue;
+        case 1: s = s + 1; break;
+        case 2:
+            for (int j = 0; j < 3; j = j + 1) {
+                if (j == 1) break;
+                s = s + 10;
+            }
+            break;
+        default: {
+            int k = i * 2;
+            s = s + k;
+        }
+        }
+        s = s + 100;
+    }
+    return s;
+}
+
+int counted() {
+    int s = 0;
+    for (int i = 0; i < 6; i = i + 1)
+        switch (i) { case 1: s = s + 1; break; case 3: s = s + 3; break; default: s = s + 100; }
+    return s;
+}
+
+int main() {
+    int t = 0;
+    for (int i = -1; i < 8; i = i + 1)
+        t = t + dense(i) * (i + 2);
+    t = t + sparse(-100) + sparse(7) * 2 + sparse(1000) * 3 + sparse(20000) * 4 + sparse(123456) * 5;
+    t = t + sparse(-5) * 6 + sparse(64) * 7 + sparse(8) + sparse(-2147483646);
+    t = t + nodefault(1) + nodefault(2) * 10 + nodefault(3) * 100;
+    t = t + loops(23) + counted();
+    return t % 256;
+}